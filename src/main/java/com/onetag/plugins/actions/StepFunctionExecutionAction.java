@@ -0,0 +1,82 @@
+package com.onetag.plugins.actions;
+
+import javax.annotation.Nullable;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Records a Step Function execution in the build that ran it, so later builds can find failed
+ * executions to redrive, and redriven executions link back to the build of the original.
+ */
+public class StepFunctionExecutionAction implements Action {
+
+  private final String stateMachineArn;
+  private final String executionArn;
+  private final boolean success;
+  private final boolean redrive;
+  private final String redriveOf;
+
+  /**
+   * @param stateMachineArn the ARN of the state machine that was executed.
+   * @param executionArn the ARN of the execution.
+   * @param success whether the execution completed successfully.
+   * @param redrive whether this build redrove the execution rather than starting it.
+   * @param redriveOf the {@link Run#getExternalizableId() ID} of the build that originally ran the
+   * execution if this build redrove it and that build is known, {@code null} otherwise.
+   */
+  public StepFunctionExecutionAction(String stateMachineArn, String executionArn, boolean success,
+      boolean redrive, @Nullable String redriveOf) {
+    this.stateMachineArn = stateMachineArn;
+    this.executionArn = executionArn;
+    this.success = success;
+    this.redrive = redrive;
+    this.redriveOf = redriveOf;
+  }
+
+  public String getStateMachineArn() {
+    return stateMachineArn;
+  }
+
+  public String getExecutionArn() {
+    return executionArn;
+  }
+
+  public boolean isSuccess() {
+    return success;
+  }
+
+  public boolean isRedrive() {
+    return redrive;
+  }
+
+  @Nullable
+  public String getRedriveOf() {
+    return redriveOf;
+  }
+
+  /**
+   * @return the build that originally ran the execution this build redrove, or {@code null} if this
+   * build didn't redrive an execution or the original build no longer exists.
+   */
+  @Nullable
+  public Run<?, ?> getRedriveOfBuild() {
+    return redriveOf == null ? null : Run.fromExternalizableId(redriveOf);
+  }
+
+  // Not shown in the side panel, only summarized on the build page
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Step Function Execution";
+  }
+
+  @Override
+  public String getUrlName() {
+    return null;
+  }
+}
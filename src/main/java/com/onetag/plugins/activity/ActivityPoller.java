@@ -0,0 +1,205 @@
+package com.onetag.plugins.activity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.GetActivityTaskRequest;
+import com.amazonaws.services.stepfunctions.model.GetActivityTaskResult;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+import hudson.model.AbstractProject;
+import hudson.model.CauseAction;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+import com.onetag.plugins.callback.TaskHeartbeater;
+import com.onetag.plugins.callback.TaskTokenAction;
+import com.onetag.plugins.callback.TaskTokenService;
+import com.onetag.plugins.model.InvokeStepFunctionResult;
+
+/**
+ * Long polls for tasks of an activity on behalf of a node, and schedules a build of the job on that
+ * node for each task received. Backs off while every idle executor of the node is reserved by other
+ * polls, or while polls come back empty, so idle activities don't spend API quota on back to back
+ * long polls. Each poll runs as its own task on a shared scheduler, so a poller only holds a thread
+ * while a poll is in flight, not while it backs off.
+ */
+class ActivityPoller implements Runnable {
+
+  private static final Logger LOGGER = Logger.getLogger(ActivityPoller.class.getName());
+  @VisibleForTesting static final long MIN_BACKOFF_MILLIS = 1_000;
+  @VisibleForTesting static final long MAX_BACKOFF_MILLIS = 60_000;
+  // The longest worker name the Step Functions service accepts
+  private static final int MAX_WORKER_NAME_LENGTH = 80;
+  private final AbstractProject<?, ?> job;
+  private final String activityArn;
+  private final AWSStepFunctions stepFunctions;
+  private final AWSStepFunctions callbacks;
+  private final String nodeName;
+  private final String workerName;
+  private final IdleExecutors idleExecutors;
+  private final ScheduledExecutorService scheduler;
+  private final CompletableFuture<Void> done = new CompletableFuture<>();
+  private volatile boolean stopped;
+  private long backoffMillis;
+  // The next poll while it's waiting to run, so stop() can cancel it (guarded by this)
+  private ScheduledFuture<?> next;
+
+  /**
+   * @param job the job to run tasks as builds of.
+   * @param activityArn the ARN of the activity to poll for tasks of.
+   * @param stepFunctions the AWS Step Function API client to poll with.
+   * @param callbacks the AWS Step Function API client to send heartbeats and results of received tasks
+   * with, which outlives this poller as the builds of its tasks may still be running when it stops.
+   * @param nodeName the name of the node to run tasks on, or the empty string for the controller.
+   * @param workerName identifies this poller to the Step Functions service.
+   * @param idleExecutors the idle executors of the node, shared with its other pollers.
+   * @param scheduler runs the polls, and schedules them after backing off.
+   */
+  ActivityPoller(AbstractProject<?, ?> job, String activityArn, AWSStepFunctions stepFunctions,
+      AWSStepFunctions callbacks, String nodeName, String workerName, IdleExecutors idleExecutors,
+      ScheduledExecutorService scheduler) {
+    this.job = job;
+    this.activityArn = activityArn;
+    this.stepFunctions = stepFunctions;
+    this.callbacks = callbacks;
+    this.nodeName = nodeName;
+    this.workerName = workerName.length() > MAX_WORKER_NAME_LENGTH
+        ? workerName.substring(0, MAX_WORKER_NAME_LENGTH) : workerName;
+    this.idleExecutors = idleExecutors;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Starts polling, until stopped.
+   *
+   * @return completes once the poller has stopped, and has no poll in flight.
+   */
+  CompletableFuture<Void> start() {
+    scheduleNext(0);
+    return done;
+  }
+
+  /**
+   * Polls once, and schedules the next poll.
+   */
+  @Override
+  public void run() {
+    synchronized (this) {
+      if (stopped) {
+        // Stopped after this poll was started by the scheduler, but before it could be cancelled
+        return;
+      }
+      next = null;
+    }
+    boolean polled;
+    try {
+      polled = pollOnce();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Failed to poll for tasks of " + activityArn, e);
+      polled = false;
+    }
+    backoffMillis = polled ? 0 : nextBackoff(backoffMillis);
+    scheduleNext(backoffMillis);
+  }
+
+  /**
+   * Stops polling. A long poll already in flight isn't interrupted, as the AWS SDK would abort it
+   * after the service may have handed it a task, and that task would be lost until it times out.
+   * Instead the poll is left to finish, any task it receives is scheduled, and then the poller exits.
+   */
+  void stop() {
+    synchronized (this) {
+      stopped = true;
+      if (next != null) {
+        next.cancel(false);
+        next = null;
+        done.complete(null);
+      }
+    }
+  }
+
+  private synchronized void scheduleNext(long delayMillis) {
+    if (stopped) {
+      done.complete(null);
+      return;
+    }
+    next = scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Polls for a single task, if the node has an executor free to run it that no other poll has
+   * reserved.
+   *
+   * @return {@code true} if a task was received and scheduled, {@code false} otherwise.
+   */
+  @VisibleForTesting boolean pollOnce() {
+    if (stopped || !idleExecutors.tryReserve()) {
+      return false;
+    }
+    try {
+      return pollReserved();
+    } finally {
+      idleExecutors.release();
+    }
+  }
+
+  private boolean pollReserved() {
+    GetActivityTaskResult task;
+    try {
+      task = stepFunctions.getActivityTask(new GetActivityTaskRequest()
+          .withActivityArn(activityArn)
+          .withWorkerName(workerName));
+    } catch (AbortedException e) {
+      // The SDK clears the interrupt it aborted the poll for, so remember it
+      stopped = true;
+      return false;
+    } catch (AmazonClientException e) {
+      LOGGER.log(Level.WARNING, "Failed to poll for tasks of " + activityArn, e);
+      return false;
+    }
+    if (Strings.isNullOrEmpty(task.getTaskToken())) {
+      return false;
+    }
+    // Scheduled even if stopped while the poll was in flight, as the task has been handed to us
+    schedule(task.getTaskToken(), task.getInput());
+    return true;
+  }
+
+  @VisibleForTesting static long nextBackoff(long backoffMillis) {
+    return backoffMillis == 0 ? MIN_BACKOFF_MILLIS : Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+  }
+
+  @VisibleForTesting void schedule(String taskToken, String input) {
+    // Heartbeat from the moment the task is received, as it may wait in the queue for a while
+    TaskHeartbeater.get().register(taskToken, callbacks);
+    Queue.ScheduleResult result = Jenkins.getInstance().getQueue().schedule2(job, 0,
+        new TaskTokenAction(taskToken, input, callbacks),
+        new NodeAssignmentAction(nodeName),
+        new CauseAction(new ActivityTaskCause(activityArn, workerName)));
+    if (!result.isAccepted()) {
+      TaskHeartbeater.get().unregister(taskToken);
+      LOGGER.warning("Failed to schedule " + job.getFullName() + " for a task of " + activityArn);
+      try {
+        new TaskTokenService(callbacks).complete(taskToken, InvokeStepFunctionResult.builder()
+            .success(false)
+            .output(new JSONObject()
+                .element("job", job.getFullName())
+                .element("result", "NOT_SCHEDULED")
+                .toString())
+            .build());
+      } catch (AmazonClientException e) {
+        LOGGER.log(Level.WARNING, "Failed to fail unscheduled task of " + activityArn, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.onetag.plugins.activity;
+
+import hudson.model.Cause;
+
+/**
+ * The cause of a build that runs a task of an AWS Step Functions activity.
+ */
+public class ActivityTaskCause extends Cause {
+
+  private final String activityArn;
+  private final String workerName;
+
+  /**
+   * @param activityArn the ARN of the activity the task belongs to.
+   * @param workerName the name of the worker that received the task.
+   */
+  public ActivityTaskCause(String activityArn, String workerName) {
+    this.activityArn = activityArn;
+    this.workerName = workerName;
+  }
+
+  public String getActivityArn() {
+    return activityArn;
+  }
+
+  public String getWorkerName() {
+    return workerName;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "Started by AWS Step Functions activity " + activityArn + " (worker " + workerName + ")";
+  }
+}
@@ -0,0 +1,164 @@
+package com.onetag.plugins.activity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps {@link ActivityPoller}s running on every online node for every job with an
+ * {@link ActivityWorkerProperty}, so polling throughput scales with the number of agents as well as
+ * the number of pollers per agent. Pollers are reconciled every minute, and whenever a node comes
+ * online or goes offline.
+ *
+ * Polls run on a fixed pool of threads shared by every poller, 20 by default, which can be changed
+ * with the {@code com.onetag.plugins.activity.ActivityWorkerManager.pollingThreads} system property.
+ * It caps the number of long polls in flight, and pollers beyond it wait for a free thread.
+ */
+@Extension
+public class ActivityWorkerManager extends PeriodicWork {
+
+  private static final int POLLING_THREADS = Integer.getInteger(
+      ActivityWorkerManager.class.getName() + ".pollingThreads", 20);
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(POLLING_THREADS,
+      new NamingThreadFactory(new DaemonThreadFactory(), "ActivityPoller"));
+  // Keyed by job and node name
+  private final Map<String, Pollers> pollers = new HashMap<>();
+  // Keyed by node name, shared by the pollers of every job on the node
+  private final Map<String, IdleExecutors> idleExecutors = new HashMap<>();
+
+  @Override
+  public long getRecurrencePeriod() {
+    return MIN;
+  }
+
+  @Override
+  protected void doRun() {
+    reconcile();
+  }
+
+  /**
+   * Starts pollers for job and node pairs that don't have them, restarts those whose job was
+   * reconfigured, and stops those whose job or node went away.
+   */
+  synchronized void reconcile() {
+    Jenkins jenkins = Jenkins.getInstance();
+    Set<String> active = new HashSet<>();
+    Set<String> activeNodes = new HashSet<>();
+    for (AbstractProject<?, ?> job : jenkins.getAllItems(AbstractProject.class)) {
+      ActivityWorkerProperty property = job.getProperty(ActivityWorkerProperty.class);
+      if (property == null || job.isDisabled()) {
+        continue;
+      }
+      for (Computer computer : jenkins.getComputers()) {
+        Node node = computer.getNode();
+        if (node == null || computer.isOffline() || computer.getNumExecutors() == 0 || !canRun(job, node)) {
+          continue;
+        }
+        String key = job.getFullName() + "@" + computer.getName();
+        active.add(key);
+        activeNodes.add(computer.getName());
+        Pollers current = pollers.get(key);
+        if (current != null && current.property == property) {
+          continue;
+        }
+        if (current != null) {
+          current.stop();
+        }
+        pollers.put(key, start(job, property, computer.getName()));
+      }
+    }
+    for (Iterator<Map.Entry<String, Pollers>> it = pollers.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, Pollers> entry = it.next();
+      if (!active.contains(entry.getKey())) {
+        entry.getValue().stop();
+        it.remove();
+      }
+    }
+    idleExecutors.keySet().retainAll(activeNodes);
+  }
+
+  private Pollers start(AbstractProject<?, ?> job, ActivityWorkerProperty property, String nodeName) {
+    Pollers started = new Pollers(property, property.createPollingClient());
+    AWSStepFunctions callbacks = property.getCallbackClient();
+    IdleExecutors nodeExecutors = idleExecutors.computeIfAbsent(nodeName, IdleExecutors::new);
+    for (int i = 0; i < property.getPollersPerAgent(); i++) {
+      String workerName = String.format("%s-%d-%s", nodeName.isEmpty() ? "master" : nodeName, i, job.getFullName());
+      ActivityPoller poller = new ActivityPoller(job, property.getActivityArn(), started.stepFunctions, callbacks,
+          nodeName, workerName, nodeExecutors, executor);
+      started.pollers.add(poller);
+      started.done.add(poller.start());
+    }
+    return started;
+  }
+
+  private static boolean canRun(AbstractProject<?, ?> job, Node node) {
+    Label label = job.getAssignedLabel();
+    return label == null ? node.getMode() == Node.Mode.NORMAL : label.contains(node);
+  }
+
+  public static ActivityWorkerManager get() {
+    return PeriodicWork.all().get(ActivityWorkerManager.class);
+  }
+
+  private class Pollers {
+
+    private final ActivityWorkerProperty property;
+    private final AWSStepFunctions stepFunctions;
+    private final List<ActivityPoller> pollers = new ArrayList<>();
+    private final List<CompletableFuture<Void>> done = new ArrayList<>();
+
+    private Pollers(ActivityWorkerProperty property, AWSStepFunctions stepFunctions) {
+      this.property = property;
+      this.stepFunctions = stepFunctions;
+    }
+
+    /**
+     * Stops the pollers, and shuts down their client once the polls they have in flight finish.
+     */
+    private void stop() {
+      for (ActivityPoller poller : pollers) {
+        poller.stop();
+      }
+      CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).thenRun(stepFunctions::shutdown);
+    }
+  }
+
+  @Extension
+  public static class ComputerListenerImpl extends ComputerListener {
+
+    @Override
+    public void onOnline(Computer computer, TaskListener listener) {
+      ActivityWorkerManager.get().reconcile();
+    }
+
+    @Override
+    public void onOffline(@Nonnull Computer computer, @CheckForNull OfflineCause cause) {
+      ActivityWorkerManager.get().reconcile();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.onetag.plugins.activity;
+
+import javax.annotation.Nullable;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.AWSStepFunctionsClientBuilder;
+import com.google.common.base.Strings;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+import com.onetag.plugins.util.AwsCredentialsProviders;
+import com.onetag.plugins.util.StepFunctionsClients;
+
+/**
+ * Registers the agents a job can run on as workers for an AWS Step Functions activity. Each agent
+ * polls for tasks of the activity, and runs every task it receives as a build of the job.
+ */
+public class ActivityWorkerProperty extends JobProperty<Job<?, ?>> {
+
+  // GetActivityTask holds a long poll open for up to 60 seconds before returning an empty task
+  private static final int LONG_POLL_SOCKET_TIMEOUT_MILLIS = 70_000;
+  private final String activityArn;
+  private final boolean useInstanceCredentials;
+  private final String awsAccessKeyId;
+  private final String awsSecretKey;
+  private final String awsRegion;
+  private final int pollersPerAgent;
+
+  @DataBoundConstructor
+  public ActivityWorkerProperty(String activityArn, boolean useInstanceCredentials,
+      @Nullable String awsAccessKeyId, @Nullable String awsSecretKey, @Nullable String awsRegion,
+      int pollersPerAgent) {
+    this.activityArn = activityArn;
+    this.useInstanceCredentials = useInstanceCredentials;
+    this.awsAccessKeyId = Strings.nullToEmpty(awsAccessKeyId);
+    this.awsSecretKey = Strings.nullToEmpty(awsSecretKey);
+    this.awsRegion = Strings.nullToEmpty(awsRegion);
+    this.pollersPerAgent = Math.max(1, pollersPerAgent);
+  }
+
+  /**
+   * @return the ARN of the activity to run tasks of, for example:
+   * "arn:aws:states:us-east-1:123456789012:activity:my_activity".
+   */
+  public String getActivityArn() {
+    return activityArn;
+  }
+
+  public boolean isUseInstanceCredentials() {
+    return useInstanceCredentials;
+  }
+
+  public String getAwsAccessKeyId() {
+    return awsAccessKeyId;
+  }
+
+  public String getAwsSecretKey() {
+    return awsSecretKey;
+  }
+
+  public String getAwsRegion() {
+    return awsRegion;
+  }
+
+  /**
+   * @return the number of concurrent polls for tasks each agent makes.
+   */
+  public int getPollersPerAgent() {
+    return pollersPerAgent;
+  }
+
+  /**
+   * @return a new client for the pollers of a single node, with a socket timeout long enough for long
+   * polls, and a connection for each poller so none waits on another's long poll.
+   */
+  AWSStepFunctions createPollingClient() {
+    return AWSStepFunctionsClientBuilder.standard()
+        .withRegion(awsRegion)
+        .withCredentials(AwsCredentialsProviders.create(useInstanceCredentials, awsAccessKeyId, awsSecretKey))
+        .withClientConfiguration(new ClientConfiguration()
+            .withSocketTimeout(LONG_POLL_SOCKET_TIMEOUT_MILLIS)
+            .withMaxConnections(pollersPerAgent))
+        .build();
+  }
+
+  /**
+   * @return the client to send heartbeats and results of received tasks with, shared with other
+   * builds with the same credentials and region.
+   */
+  AWSStepFunctions getCallbackClient() {
+    return StepFunctionsClients.shared(InvokeStepFunctionConfig.builder()
+        .awsAccessKeyId(awsAccessKeyId)
+        .awsSecretKey(awsSecretKey)
+        .awsRegion(awsRegion)
+        .build(), useInstanceCredentials);
+  }
+
+  @Extension
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+      return AbstractProject.class.isAssignableFrom(jobType);
+    }
+
+    @Override
+    public ActivityWorkerProperty newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+      JSONObject activityWorker = formData.optJSONObject("activityWorker");
+      if (activityWorker == null || activityWorker.isNullObject()) {
+        return null;
+      }
+      return req.bindJSON(ActivityWorkerProperty.class, activityWorker);
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "AWS Step Functions Activity Worker";
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.onetag.plugins.activity;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import hudson.model.Computer;
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+
+/**
+ * Reserves the idle executors of a node for the tasks its pollers are polling for. Every poller on the
+ * node, for every activity, reserves an executor before it polls and releases it once the task it
+ * received is queued. From then on the queued build holds the executor until the queue hands it over,
+ * so together they never take on more tasks than the node can run.
+ */
+class IdleExecutors {
+
+  private final String nodeName;
+  private int reserved;
+
+  /**
+   * @param nodeName the name of the node, or the empty string for the controller.
+   */
+  IdleExecutors(String nodeName) {
+    this.nodeName = nodeName;
+  }
+
+  /**
+   * @return {@code true} if an idle executor was reserved, which must then be released with
+   * {@link #release()}, or {@code false} if every idle executor is already reserved.
+   */
+  synchronized boolean tryReserve() {
+    if (reserved >= countIdle()) {
+      return false;
+    }
+    reserved++;
+    return true;
+  }
+
+  synchronized void release() {
+    reserved--;
+  }
+
+  /**
+   * @return the idle executors of the node that aren't yet claimed by a task waiting in the queue.
+   */
+  @VisibleForTesting int countIdle() {
+    Jenkins jenkins = Jenkins.getInstance();
+    Computer computer = jenkins.getComputer(nodeName);
+    if (computer == null || !computer.isOnline()) {
+      return 0;
+    }
+    // An executor stays idle until the queue hands it a build, so tasks still queued must be counted
+    return computer.countIdle() - countQueued(jenkins.getQueue().getItems());
+  }
+
+  /**
+   * @return the number of queued builds pinned to the node to run a task received by its pollers.
+   */
+  @VisibleForTesting int countQueued(Queue.Item[] items) {
+    int queued = 0;
+    for (Queue.Item item : items) {
+      NodeAssignmentAction assignment = item.getAction(NodeAssignmentAction.class);
+      if (assignment != null && assignment.getNodeName().equals(nodeName)) {
+        queued++;
+      }
+    }
+    return queued;
+  }
+}
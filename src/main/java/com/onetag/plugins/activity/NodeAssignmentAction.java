@@ -0,0 +1,38 @@
+package com.onetag.plugins.activity;
+
+import javax.annotation.Nonnull;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.labels.LabelAssignmentAction;
+import hudson.model.queue.SubTask;
+import jenkins.model.Jenkins;
+
+/**
+ * Pins a build to the node whose worker received the task it runs, so the agents that poll for
+ * tasks are the ones that run them.
+ */
+public class NodeAssignmentAction extends InvisibleAction implements LabelAssignmentAction {
+
+  private final String nodeName;
+
+  /**
+   * @param nodeName the name of the node to run on, or the empty string for the controller.
+   */
+  public NodeAssignmentAction(String nodeName) {
+    this.nodeName = nodeName;
+  }
+
+  public String getNodeName() {
+    return nodeName;
+  }
+
+  @Override
+  public Label getAssignedLabel(@Nonnull SubTask task) {
+    Jenkins jenkins = Jenkins.getInstance();
+    Node node = nodeName.isEmpty() ? jenkins : jenkins.getNode(nodeName);
+    // Fall back to the job's own label if the node has gone away
+    return node == null ? null : node.getSelfLabel();
+  }
+}
@@ -0,0 +1,117 @@
+package com.onetag.plugins.callback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.TaskDoesNotExistException;
+import com.amazonaws.services.stepfunctions.model.TaskTimedOutException;
+import com.google.common.annotations.VisibleForTesting;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Sends heartbeats for every task token bound to a queued or running build. Heartbeats for all
+ * tokens are sent in a single periodic sweep, rather than by a thread per build, so hundreds of
+ * token-bound builds can run at the same time. The sweep fans the heartbeats out over a small pool
+ * of threads, so that it finishes well within the interval even with that many tokens.
+ *
+ * The interval between sweeps defaults to 30 seconds, and can be changed with the
+ * {@code com.onetag.plugins.callback.TaskHeartbeater.intervalSeconds} system property. It should be
+ * shorter than the {@code HeartbeatSeconds} of any task run as a build. The pool has 8 threads by
+ * default, which can be changed with the {@code com.onetag.plugins.callback.TaskHeartbeater.threads}
+ * system property.
+ */
+@Extension
+public class TaskHeartbeater extends AsyncPeriodicWork {
+
+  private static final long INTERVAL_SECONDS = Long.getLong(TaskHeartbeater.class.getName() + ".intervalSeconds", 30);
+  private static final int THREADS = Integer.getInteger(TaskHeartbeater.class.getName() + ".threads", 8);
+  private final ConcurrentMap<String, AWSStepFunctions> taskTokens = new ConcurrentHashMap<>();
+  private final ExecutorService executor;
+
+  public TaskHeartbeater() {
+    this(Executors.newFixedThreadPool(THREADS, new NamingThreadFactory(new DaemonThreadFactory(),
+        "TaskHeartbeater")));
+  }
+
+  /**
+   * @param executor sends the heartbeats of each sweep.
+   */
+  @VisibleForTesting TaskHeartbeater(ExecutorService executor) {
+    super("AWS Step Functions task heartbeats");
+    this.executor = executor;
+  }
+
+  public static TaskHeartbeater get() {
+    return PeriodicWork.all().get(TaskHeartbeater.class);
+  }
+
+  /**
+   * Starts sending heartbeats for a task token.
+   *
+   * @param taskToken the token of the task.
+   * @param stepFunctions the AWS Step Function API client to send heartbeats with.
+   * @return {@code true} if the token was registered, or {@code false} if heartbeats were already
+   * being sent for it, as it's bound to a build that's still queued or running.
+   */
+  public boolean register(String taskToken, AWSStepFunctions stepFunctions) {
+    return taskTokens.putIfAbsent(taskToken, stepFunctions) == null;
+  }
+
+  /**
+   * Stops sending heartbeats for a task token.
+   *
+   * @param taskToken the token of the task.
+   */
+  public void unregister(String taskToken) {
+    taskTokens.remove(taskToken);
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return TimeUnit.SECONDS.toMillis(INTERVAL_SECONDS);
+  }
+
+  @Override
+  protected void execute(TaskListener listener) throws InterruptedException {
+    List<Future<?>> heartbeats = new ArrayList<>();
+    for (Map.Entry<String, AWSStepFunctions> entry : taskTokens.entrySet()) {
+      heartbeats.add(executor.submit(() -> heartbeat(entry.getKey(), entry.getValue(), listener)));
+    }
+    // Wait for the whole sweep, so the next one doesn't start while its heartbeats are still in flight
+    for (Future<?> heartbeat : heartbeats) {
+      try {
+        heartbeat.get();
+      } catch (ExecutionException e) {
+        listener.getLogger().println("Failed to send task heartbeat: " + e.getCause());
+      }
+    }
+  }
+
+  private void heartbeat(String taskToken, AWSStepFunctions stepFunctions, TaskListener listener) {
+    try {
+      new TaskTokenService(stepFunctions).heartbeat(taskToken);
+    } catch (TaskTimedOutException | TaskDoesNotExistException e) {
+      // The task can no longer be completed, so there's no point in keeping it alive
+      taskTokens.remove(taskToken);
+      listener.getLogger().println("Stopped sending heartbeats for expired task: " + e.getMessage());
+    } catch (AmazonClientException e) {
+      listener.getLogger().println("Failed to send task heartbeat: " + e.getMessage());
+    }
+  }
+}
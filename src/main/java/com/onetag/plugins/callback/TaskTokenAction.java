@@ -0,0 +1,91 @@
+package com.onetag.plugins.callback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+
+import hudson.EnvVars;
+import hudson.model.Action;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.InvisibleAction;
+import hudson.model.Queue;
+import hudson.model.Run;
+
+/**
+ * Binds a build to a Step Functions task token. The token is completed with the result of the build
+ * when it finishes, and heartbeats are sent for it while it's queued and running.
+ */
+public class TaskTokenAction extends InvisibleAction implements EnvironmentContributingAction,
+    Queue.QueueAction {
+
+  public static final String TASK_TOKEN_VARIABLE = "STEP_FUNCTION_TASK_TOKEN";
+  public static final String INPUT_VARIABLE = "STEP_FUNCTION_INPUT";
+  public static final String INPUT_FILE_VARIABLE = "STEP_FUNCTION_INPUT_FILE";
+  // Task inputs can be up to 256 KB, but Linux rejects any single environment string over 128 KB
+  static final int MAX_INPUT_VARIABLE_BYTES = 64 * 1024;
+  private final String taskToken;
+  private final String input;
+  private String output;
+  // Builds don't survive a restart, so neither does the client used to complete the token
+  private transient AWSStepFunctions stepFunctions;
+
+  /**
+   * @param taskToken the task token to complete when the build finishes.
+   * @param input the JSON input of the task, exposed to the build as a file, and as an environment
+   * variable if it's small enough.
+   * @param stepFunctions the AWS Step Function API client used to complete the token.
+   */
+  public TaskTokenAction(String taskToken, @Nullable String input, AWSStepFunctions stepFunctions) {
+    this.taskToken = taskToken;
+    this.input = input;
+    this.stepFunctions = stepFunctions;
+  }
+
+  public String getTaskToken() {
+    return taskToken;
+  }
+
+  @Nullable
+  public String getInput() {
+    return input;
+  }
+
+  /**
+   * @return the output to complete the token with, or {@code null} to complete it with a summary of
+   * the build.
+   */
+  @Nullable
+  public String getOutput() {
+    return output;
+  }
+
+  public void setOutput(@Nullable String output) {
+    this.output = output;
+  }
+
+  /**
+   * @return the client used to complete the token, or {@code null} if it was lost to a restart.
+   */
+  @Nullable
+  public AWSStepFunctions getStepFunctions() {
+    return stepFunctions;
+  }
+
+  @Override
+  public void buildEnvironment(@Nonnull Run<?, ?> run, @Nonnull EnvVars env) {
+    env.put(TASK_TOKEN_VARIABLE, taskToken);
+    if (input != null && input.getBytes(StandardCharsets.UTF_8).length <= MAX_INPUT_VARIABLE_BYTES) {
+      env.put(INPUT_VARIABLE, input);
+    }
+  }
+
+  // Every task token needs its own build, so never merge with an item already in the queue
+  @Override
+  public boolean shouldSchedule(List<Action> actions) {
+    return true;
+  }
+}
@@ -0,0 +1,14 @@
+package com.onetag.plugins.callback;
+
+import hudson.model.Cause;
+
+/**
+ * The cause of a build started by a Step Functions {@code .waitForTaskToken} callback.
+ */
+public class TaskTokenCause extends Cause {
+
+  @Override
+  public String getShortDescription() {
+    return "Started by an AWS Step Functions task callback";
+  }
+}
@@ -0,0 +1,48 @@
+package com.onetag.plugins.callback;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.AmazonClientException;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import net.sf.json.JSONObject;
+
+import com.onetag.plugins.model.InvokeStepFunctionResult;
+
+/**
+ * Fails the task tokens bound to builds that are cancelled while still in the queue, as they never
+ * run to be completed by {@link TaskTokenRunListener}.
+ */
+@Extension
+public class TaskTokenQueueListener extends QueueListener {
+
+  private static final Logger LOGGER = Logger.getLogger(TaskTokenQueueListener.class.getName());
+
+  @Override
+  public void onLeft(Queue.LeftItem item) {
+    if (!item.isCancelled()) {
+      return;
+    }
+    for (TaskTokenAction action : item.getActions(TaskTokenAction.class)) {
+      TaskHeartbeater.get().unregister(action.getTaskToken());
+      if (action.getStepFunctions() == null) {
+        continue;
+      }
+      InvokeStepFunctionResult result = InvokeStepFunctionResult.builder()
+          .success(false)
+          .output(new JSONObject()
+              .element("job", item.task.getFullDisplayName())
+              .element("result", "CANCELLED")
+              .toString())
+          .build();
+      try {
+        new TaskTokenService(action.getStepFunctions()).complete(action.getTaskToken(), result);
+      } catch (AmazonClientException e) {
+        LOGGER.log(Level.WARNING, "Failed to fail Step Functions task of cancelled " + item.task.getFullDisplayName(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.onetag.plugins.callback;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonClientException;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Environment;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.slaves.WorkspaceList;
+import net.sf.json.JSONObject;
+
+import com.onetag.plugins.model.InvokeStepFunctionResult;
+
+/**
+ * Completes the task tokens bound to a build with the result of the build once it finishes, and
+ * hands the input of the task to the build as a file.
+ */
+@Extension
+public class TaskTokenRunListener extends RunListener<Run<?, ?>> {
+
+  private static final String INPUT_FILE_NAME = "step-function-input.json";
+
+  /**
+   * Writes the input of the task bound to the build to a file in the temporary directory of its
+   * workspace, as inputs may be too large to pass in an environment variable.
+   */
+  @Override
+  public Environment setUpEnvironment(AbstractBuild build, Launcher launcher, BuildListener listener)
+      throws IOException, InterruptedException {
+    TaskTokenAction action = build.getAction(TaskTokenAction.class);
+    FilePath workspace = build.getWorkspace();
+    if (action == null || action.getInput() == null || workspace == null) {
+      return super.setUpEnvironment(build, launcher, listener);
+    }
+    FilePath tempDir = WorkspaceList.tempDir(workspace);
+    tempDir.mkdirs();
+    FilePath inputFile = tempDir.child(INPUT_FILE_NAME);
+    inputFile.write(action.getInput(), "UTF-8");
+    return new Environment() {
+      @Override
+      public void buildEnvVars(Map<String, String> env) {
+        env.put(TaskTokenAction.INPUT_FILE_VARIABLE, inputFile.getRemote());
+      }
+
+      @Override
+      public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
+        inputFile.delete();
+        return true;
+      }
+    };
+  }
+
+  @Override
+  public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+    for (TaskTokenAction action : run.getActions(TaskTokenAction.class)) {
+      TaskHeartbeater.get().unregister(action.getTaskToken());
+      if (action.getStepFunctions() == null) {
+        listener.getLogger().println("Lost the AWS client for the Step Functions task after a restart, it will"
+            + " time out instead of being completed");
+        continue;
+      }
+      InvokeStepFunctionResult result = InvokeStepFunctionResult.builder()
+          .success(run.getResult() == Result.SUCCESS)
+          .output(action.getOutput() != null ? action.getOutput() : describe(run))
+          .build();
+      try {
+        new TaskTokenService(action.getStepFunctions()).complete(action.getTaskToken(), result);
+        listener.getLogger().println("Reported Step Functions task " + (result.isSuccess() ? "success" : "failure"));
+      } catch (AmazonClientException e) {
+        listener.getLogger().println("Failed to complete Step Functions task: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @return the JSON output a task run as the given build completes with, for example:
+   * {"job":"my-job","number":12,"result":"SUCCESS","url":"job/my-job/12/"}
+   */
+  static String describe(Run<?, ?> run) {
+    Result result = run.getResult();
+    return new JSONObject()
+        .element("job", run.getParent().getFullName())
+        .element("number", run.getNumber())
+        .element("result", result == null ? null : result.toString())
+        .element("url", run.getUrl())
+        .toString();
+  }
+}
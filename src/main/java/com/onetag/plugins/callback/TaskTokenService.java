@@ -0,0 +1,58 @@
+package com.onetag.plugins.callback;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.SendTaskFailureRequest;
+import com.amazonaws.services.stepfunctions.model.SendTaskHeartbeatRequest;
+import com.amazonaws.services.stepfunctions.model.SendTaskSuccessRequest;
+
+import com.onetag.plugins.model.InvokeStepFunctionResult;
+
+/**
+ * Reports progress and results of Step Functions tasks, either activity tasks or
+ * {@code .waitForTaskToken} callbacks, run as Jenkins builds.
+ */
+public class TaskTokenService {
+
+  /**
+   * The error a task is failed with when the build it ran as fails, which state machines can
+   * {@code Catch} or {@code Retry} on.
+   */
+  public static final String BUILD_FAILED_ERROR = "Jenkins.BuildFailed";
+  private final AWSStepFunctions stepFunctions;
+
+  /**
+   * @param stepFunctions the AWS Step Function API client.
+   */
+  public TaskTokenService(AWSStepFunctions stepFunctions) {
+    this.stepFunctions = stepFunctions;
+  }
+
+  /**
+   * Reports that the task is still being worked on, so it doesn't time out.
+   *
+   * @param taskToken the token of the task.
+   */
+  public void heartbeat(String taskToken) {
+    stepFunctions.sendTaskHeartbeat(new SendTaskHeartbeatRequest().withTaskToken(taskToken));
+  }
+
+  /**
+   * Completes the task with a build's result, successfully with the output of the build as the task
+   * output, or as failed with the output as the cause.
+   *
+   * @param taskToken the token of the task.
+   * @param result the result of the build the task ran as.
+   */
+  public void complete(String taskToken, InvokeStepFunctionResult result) {
+    if (result.isSuccess()) {
+      stepFunctions.sendTaskSuccess(new SendTaskSuccessRequest()
+          .withTaskToken(taskToken)
+          .withOutput(result.getOutput()));
+    } else {
+      stepFunctions.sendTaskFailure(new SendTaskFailureRequest()
+          .withTaskToken(taskToken)
+          .withError(BUILD_FAILED_ERROR)
+          .withCause(result.getOutput()));
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.onetag.plugins.callback;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.annotation.Nullable;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.google.common.base.Strings;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.CauseAction;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.triggers.Trigger;
+import hudson.triggers.TriggerDescriptor;
+import jenkins.model.Jenkins;
+
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+import com.onetag.plugins.util.StepFunctionsClients;
+
+/**
+ * Lets a job be the target of a Step Functions {@code .waitForTaskToken} task. The state machine
+ * (usually through a Lambda function or API Gateway) posts the task token to
+ * {@link TaskTokenWebhook}, which starts a build bound to the token. The token is completed with the
+ * result of the build when it finishes.
+ */
+public class TaskTokenTrigger extends Trigger<Job<?, ?>> {
+
+  private final String authToken;
+  private final boolean useInstanceCredentials;
+  private final String awsAccessKeyId;
+  private final String awsSecretKey;
+  private final String awsRegion;
+
+  @DataBoundConstructor
+  public TaskTokenTrigger(String authToken, boolean useInstanceCredentials, @Nullable String awsAccessKeyId,
+      @Nullable String awsSecretKey, @Nullable String awsRegion) {
+    this.authToken = authToken;
+    this.useInstanceCredentials = useInstanceCredentials;
+    this.awsAccessKeyId = Strings.nullToEmpty(awsAccessKeyId);
+    this.awsSecretKey = Strings.nullToEmpty(awsSecretKey);
+    this.awsRegion = Strings.nullToEmpty(awsRegion);
+  }
+
+  /**
+   * @return the secret callers must provide to start builds of the job.
+   */
+  public String getAuthToken() {
+    return authToken;
+  }
+
+  public boolean isUseInstanceCredentials() {
+    return useInstanceCredentials;
+  }
+
+  public String getAwsAccessKeyId() {
+    return awsAccessKeyId;
+  }
+
+  public String getAwsSecretKey() {
+    return awsSecretKey;
+  }
+
+  public String getAwsRegion() {
+    return awsRegion;
+  }
+
+  /**
+   * @return {@code true} if the given token matches the configured auth token.
+   */
+  boolean isAuthorized(@Nullable String token) {
+    return !Strings.isNullOrEmpty(authToken) && token != null && MessageDigest.isEqual(
+        authToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Schedules a build of the job bound to a task token.
+   *
+   * @param job the job this trigger belongs to.
+   * @param taskToken the token to complete with the result of the build.
+   * @param input the input of the task, exposed to the build as an environment variable.
+   * @return the result of scheduling the build, or {@code null} if the token is already bound to a
+   * queued or running build, for example because the token was posted more than once.
+   */
+  @Nullable
+  Queue.ScheduleResult schedule(AbstractProject<?, ?> job, String taskToken, @Nullable String input) {
+    AWSStepFunctions stepFunctions = StepFunctionsClients.shared(InvokeStepFunctionConfig.builder()
+        .awsAccessKeyId(awsAccessKeyId)
+        .awsSecretKey(awsSecretKey)
+        .awsRegion(awsRegion)
+        .build(), useInstanceCredentials);
+    // Heartbeat from the moment the token is received, as the build may wait in the queue for a while.
+    // Registering is atomic, so of concurrent posts of the same token only one schedules a build.
+    if (!TaskHeartbeater.get().register(taskToken, stepFunctions)) {
+      return null;
+    }
+    Queue.ScheduleResult result = Jenkins.getInstance().getQueue().schedule2(job, 0,
+        new TaskTokenAction(taskToken, input, stepFunctions),
+        new CauseAction(new TaskTokenCause()));
+    if (!result.isAccepted()) {
+      TaskHeartbeater.get().unregister(taskToken);
+    }
+    return result;
+  }
+
+  @Extension
+  public static class DescriptorImpl extends TriggerDescriptor {
+
+    @Override
+    public boolean isApplicable(Item item) {
+      return item instanceof AbstractProject;
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "Build when an AWS Step Functions task token is received";
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.onetag.plugins.callback;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
+
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Queue;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.security.csrf.CrumbExclusion;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Receives task tokens for jobs with a {@link TaskTokenTrigger}. Expects a POST to
+ * {@code /stepfunctions-task/} with a JSON body of the form:
+ *
+ * <pre>
+ * {"job": "folder/my-job", "authToken": "...", "taskToken": "...", "input": {...}}
+ * </pre>
+ */
+@Extension
+public class TaskTokenWebhook implements UnprotectedRootAction {
+
+  public static final String URL_NAME = "stepfunctions-task";
+
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return null;
+  }
+
+  @Override
+  public String getUrlName() {
+    return URL_NAME;
+  }
+
+  @RequirePOST
+  public HttpResponse doIndex(StaplerRequest req) throws IOException {
+    JSONObject body;
+    try {
+      body = JSONObject.fromObject(CharStreams.toString(req.getReader()));
+    } catch (JSONException e) {
+      return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "Request body must be a JSON object");
+    }
+    String jobName = body.optString("job");
+    String taskToken = body.optString("taskToken");
+    if (Strings.isNullOrEmpty(jobName) || Strings.isNullOrEmpty(taskToken)) {
+      return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "job and taskToken are required");
+    }
+    AbstractProject<?, ?> job = findJob(jobName);
+    TaskTokenTrigger trigger = job == null ? null : job.getTrigger(TaskTokenTrigger.class);
+    if (trigger == null || !trigger.isAuthorized(body.optString("authToken", null))) {
+      // Don't reveal which jobs exist to unauthorized callers
+      return HttpResponses.notFound();
+    }
+    Object input = body.opt("input");
+    Queue.ScheduleResult result = trigger.schedule(job, taskToken, input == null ? null : input.toString());
+    if (result == null) {
+      // A retried post of a token that already has a build, which will complete it
+      return HttpResponses.status(HttpServletResponse.SC_OK);
+    }
+    if (!result.isAccepted()) {
+      return HttpResponses.error(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Failed to schedule " + jobName);
+    }
+    return HttpResponses.status(HttpServletResponse.SC_ACCEPTED);
+  }
+
+  @VisibleForTesting @Nullable AbstractProject<?, ?> findJob(String jobName) {
+    // The caller is anonymous, so look the job up as the system and authorize with the trigger's token
+    try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+      return Jenkins.getInstance().getItemByFullName(jobName, AbstractProject.class);
+    }
+  }
+
+  @Extension
+  public static class CrumbExclusionImpl extends CrumbExclusion {
+
+    @Override
+    public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
+        throws IOException, ServletException {
+      String pathInfo = req.getPathInfo();
+      if (pathInfo != null && (pathInfo.equals("/" + URL_NAME) || pathInfo.startsWith("/" + URL_NAME + "/"))) {
+        chain.doFilter(req, resp);
+        return true;
+      }
+      return false;
+    }
+  }
+}
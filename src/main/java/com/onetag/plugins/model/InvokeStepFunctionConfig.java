@@ -1,5 +1,6 @@
 package com.onetag.plugins.model;
 
+import java.io.Serializable;
 import java.time.Duration;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -12,8 +13,9 @@ import com.google.common.base.Objects;
  * @author Tony Gallotta
  * @since 11/17/2018
  */
-public class InvokeStepFunctionConfig {
+public class InvokeStepFunctionConfig implements Serializable {
 
+  private static final long serialVersionUID = 1L;
   private static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(30);
   private final String awsAccessKeyId;
   private final String awsSecretKey;
@@ -21,6 +23,7 @@ public class InvokeStepFunctionConfig {
   private final String stateMachineArn;
   private final Duration pollInterval;
   private final String payload;
+  private final String payloadStoreUri;
 
   @JsonCreator
   private InvokeStepFunctionConfig(Builder builder) {
@@ -30,6 +33,7 @@ public class InvokeStepFunctionConfig {
     this.stateMachineArn = builder.stateMachineArn;
     this.pollInterval = builder.pollInterval;
     this.payload = builder.payload;
+    this.payloadStoreUri = builder.payloadStoreUri;
   }
 
   public String getAwsAccessKeyId() {
@@ -69,6 +73,14 @@ public class InvokeStepFunctionConfig {
     return payload;
   }
 
+  /**
+   * @return the URI of the store payloads and outputs exceeding the Step Functions size limit are
+   * offloaded to, for example "s3://my-bucket/payloads/", or {@code null} if they aren't offloaded.
+   */
+  public String getPayloadStoreUri() {
+    return payloadStoreUri;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -79,12 +91,14 @@ public class InvokeStepFunctionConfig {
         Objects.equal(awsRegion, config.awsRegion) &&
         Objects.equal(stateMachineArn, config.stateMachineArn) &&
         Objects.equal(pollInterval, config.pollInterval) &&
-        Objects.equal(payload, config.payload);
+        Objects.equal(payload, config.payload) &&
+        Objects.equal(payloadStoreUri, config.payloadStoreUri);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(awsAccessKeyId, awsSecretKey, awsRegion, stateMachineArn, pollInterval, payload);
+    return Objects.hashCode(awsAccessKeyId, awsSecretKey, awsRegion, stateMachineArn, pollInterval, payload,
+        payloadStoreUri);
   }
 
   @Override
@@ -96,6 +110,7 @@ public class InvokeStepFunctionConfig {
         .add("stateMachineArn", stateMachineArn)
         .add("pollInterval", pollInterval)
         .add("payload", payload)
+        .add("payloadStoreUri", payloadStoreUri)
         .toString();
   }
 
@@ -115,6 +130,7 @@ public class InvokeStepFunctionConfig {
     private String stateMachineArn;
     private Duration pollInterval = DEFAULT_POLL_INTERVAL;
     private String payload;
+    private String payloadStoreUri;
 
     private Builder() { }
 
@@ -125,6 +141,7 @@ public class InvokeStepFunctionConfig {
       this.stateMachineArn = prototype.stateMachineArn;
       this.pollInterval = prototype.pollInterval;
       this.payload = prototype.payload;
+      this.payloadStoreUri = prototype.payloadStoreUri;
       return this;
     }
 
@@ -158,6 +175,11 @@ public class InvokeStepFunctionConfig {
       return this;
     }
 
+    public Builder payloadStoreUri(String payloadStoreUri) {
+      this.payloadStoreUri = payloadStoreUri;
+      return this;
+    }
+
     public InvokeStepFunctionConfig build() {
       return new InvokeStepFunctionConfig(this);
     }
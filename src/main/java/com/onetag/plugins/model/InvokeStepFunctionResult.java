@@ -1,5 +1,8 @@
 package com.onetag.plugins.model;
 
+import java.io.File;
+import java.io.Serializable;
+
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 
@@ -10,16 +13,19 @@ import com.google.common.base.Objects;
  * @author Tony Gallotta
  * @since 11/17/2018
  */
-public class InvokeStepFunctionResult {
+public class InvokeStepFunctionResult implements Serializable {
 
+  private static final long serialVersionUID = 1L;
   private final String output;
   private final String executionArn;
   private final boolean success;
+  private final File outputFile;
 
   private InvokeStepFunctionResult(Builder builder) {
     this.output = builder.output;
     this.executionArn = builder.executionArn;
     this.success = builder.success;
+    this.outputFile = builder.outputFile;
   }
 
   /**
@@ -44,6 +50,15 @@ public class InvokeStepFunctionResult {
     return success;
   }
 
+  /**
+   * @return the file the final output was downloaded to if the Step Function returned a pointer to
+   * an offloaded output, {@code null} otherwise. The path is on the agent if the Step Function was
+   * invoked from one.
+   */
+  public File getOutputFile() {
+    return outputFile;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -51,12 +66,13 @@ public class InvokeStepFunctionResult {
     InvokeStepFunctionResult that = (InvokeStepFunctionResult)o;
     return success == that.success &&
         Objects.equal(output, that.output) &&
-        Objects.equal(executionArn, that.executionArn);
+        Objects.equal(executionArn, that.executionArn) &&
+        Objects.equal(outputFile, that.outputFile);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(output, executionArn, success);
+    return Objects.hashCode(output, executionArn, success, outputFile);
   }
 
   @Override
@@ -65,6 +81,7 @@ public class InvokeStepFunctionResult {
         .add("output", output)
         .add("executionArn", executionArn)
         .add("success", success)
+        .add("outputFile", outputFile)
         .toString();
   }
 
@@ -81,6 +98,7 @@ public class InvokeStepFunctionResult {
     private String output;
     private String executionArn;
     private boolean success;
+    private File outputFile;
 
     private Builder() {}
 
@@ -88,6 +106,7 @@ public class InvokeStepFunctionResult {
       this.output = prototype.output;
       this.executionArn = prototype.executionArn;
       this.success = prototype.success;
+      this.outputFile = prototype.outputFile;
       return this;
     }
 
@@ -106,6 +125,11 @@ public class InvokeStepFunctionResult {
       return this;
     }
 
+    public Builder outputFile(File outputFile) {
+      this.outputFile = outputFile;
+      return this;
+    }
+
     public InvokeStepFunctionResult build() {
       return new InvokeStepFunctionResult(this);
     }
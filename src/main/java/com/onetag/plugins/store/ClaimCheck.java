@@ -0,0 +1,149 @@
+package com.onetag.plugins.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Implements the claim-check pattern for Step Function inputs and outputs that exceed the size
+ * limit of the Step Functions service. Oversized payloads are compressed and uploaded to a
+ * {@link PayloadStore}, and replaced with a small pointer document of the form:
+ *
+ * <pre>
+ * {"claimCheck": {"location": "s3://my-bucket/payloads/0b5c...json.gz", "encoding": "gzip"}}
+ * </pre>
+ *
+ * Executions may return a pointer of the same form as their output, which is downloaded to disk
+ * rather than held in memory.
+ */
+public class ClaimCheck implements Closeable {
+
+  /**
+   * The maximum size, in bytes, of an execution input or output accepted by the Step Functions
+   * service.
+   */
+  public static final int MAX_PAYLOAD_BYTES = 256 * 1024;
+  static final String CLAIM_CHECK_FIELD = "claimCheck";
+  static final String LOCATION_FIELD = "location";
+  static final String ENCODING_FIELD = "encoding";
+  static final String GZIP_ENCODING = "gzip";
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private final PayloadStore store;
+  private final File downloadDirectory;
+
+  /**
+   * @param store the store oversized payloads are offloaded to.
+   * @param downloadDirectory the directory offloaded outputs are downloaded to.
+   */
+  public ClaimCheck(PayloadStore store, File downloadDirectory) {
+    this.store = store;
+    this.downloadDirectory = downloadDirectory;
+  }
+
+  /**
+   * Offloads a payload to the store if it's too large to pass to the Step Functions service.
+   *
+   * @param payload the JSON payload to invoke a Step Function with.
+   * @return the payload itself if it's small enough to pass directly, otherwise a pointer to its
+   * location in the store.
+   * @throws IOException if the payload couldn't be uploaded.
+   */
+  @Nullable
+  public String checkIn(@Nullable String payload) throws IOException {
+    if (payload == null) {
+      return null;
+    }
+    byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length <= MAX_PAYLOAD_BYTES) {
+      return payload;
+    }
+    File compressed = File.createTempFile("stepfunction-payload", ".json.gz");
+    try {
+      try (OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+        out.write(bytes);
+      }
+      URI location = store.put(UUID.randomUUID() + ".json.gz", compressed);
+      ObjectNode pointer = MAPPER.createObjectNode();
+      pointer.putObject(CLAIM_CHECK_FIELD)
+          .put(LOCATION_FIELD, location.toString())
+          .put(ENCODING_FIELD, GZIP_ENCODING);
+      return MAPPER.writeValueAsString(pointer);
+    } finally {
+      compressed.delete();
+    }
+  }
+
+  /**
+   * Downloads the payload an execution output points to, if it is a pointer.
+   *
+   * @param output the output of a Step Function execution.
+   * @param fileName the name of the file to download the payload to.
+   * @return the downloaded file, or {@code null} if the output isn't a pointer.
+   * @throws IOException if the payload couldn't be downloaded, or the pointer's location isn't in
+   * the store.
+   */
+  @Nullable
+  public File checkOut(@Nullable String output, String fileName) throws IOException {
+    JsonNode claimCheck = parsePointer(output);
+    if (claimCheck == null) {
+      return null;
+    }
+    URI location;
+    try {
+      location = new URI(claimCheck.get(LOCATION_FIELD).asText());
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid claim-check location", e);
+    }
+    boolean gzipped = GZIP_ENCODING.equals(claimCheck.path(ENCODING_FIELD).asText());
+    File destination = new File(downloadDirectory, fileName);
+    try (InputStream stored = store.open(location);
+        InputStream in = gzipped ? new GZIPInputStream(stored) : stored;
+        OutputStream out = new FileOutputStream(destination)) {
+      ByteStreams.copy(in, out);
+    }
+    return destination;
+  }
+
+  @Override
+  public void close() throws IOException {
+    store.close();
+  }
+
+  @Nullable
+  private static JsonNode parsePointer(@Nullable String output) {
+    if (output == null) {
+      return null;
+    }
+    JsonNode root;
+    try {
+      root = MAPPER.readTree(output);
+    } catch (IOException e) {
+      // not JSON, so certainly not a pointer
+      return null;
+    }
+    if (root == null || !root.isObject() || root.size() != 1) {
+      return null;
+    }
+    JsonNode claimCheck = root.get(CLAIM_CHECK_FIELD);
+    if (claimCheck == null || !claimCheck.hasNonNull(LOCATION_FIELD)) {
+      return null;
+    }
+    return claimCheck;
+  }
+}
@@ -0,0 +1,56 @@
+package com.onetag.plugins.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A {@link PayloadStore} backed by a directory on the local filesystem, intended as a stand-in for
+ * S3 when testing.
+ */
+public class LocalPayloadStore implements PayloadStore {
+
+  private final File root;
+
+  /**
+   * @param root the directory objects are stored in, created if it doesn't exist.
+   */
+  public LocalPayloadStore(File root) {
+    this.root = root;
+  }
+
+  @Override
+  public URI put(String key, File source) throws IOException {
+    File target = new File(root, key);
+    Files.createDirectories(target.getParentFile().toPath());
+    Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return target.toURI();
+  }
+
+  @Override
+  public InputStream open(URI location) throws IOException {
+    if (!"file".equals(location.getScheme())) {
+      throw new IOException("Not a location in " + root + ": " + location);
+    }
+    File file;
+    try {
+      file = new File(location).getCanonicalFile();
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid location: " + location, e);
+    }
+    // Locations come from execution outputs, so refuse anything outside of the store
+    if (!file.getPath().startsWith(root.getCanonicalPath() + File.separator)) {
+      throw new IOException("Not a location in " + root + ": " + location);
+    }
+    return new FileInputStream(file);
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+}
@@ -0,0 +1,33 @@
+package com.onetag.plugins.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * An object store that payloads too large to be passed to the Step Functions service directly are
+ * offloaded to.
+ */
+public interface PayloadStore extends Closeable {
+
+  /**
+   * Uploads the contents of a file to the store.
+   *
+   * @param key the name to store the contents under, relative to the root of the store.
+   * @param source the file to upload.
+   * @return the location the contents can be retrieved from with {@link #open(URI)}.
+   * @throws IOException if the upload failed.
+   */
+  URI put(String key, File source) throws IOException;
+
+  /**
+   * Opens a stream to an object in the store. The caller is responsible for closing the stream.
+   *
+   * @param location the location of the object, as returned by {@link #put(String, File)}.
+   * @return a stream of the contents of the object.
+   * @throws IOException if the object could not be opened, or the location isn't in this store.
+   */
+  InputStream open(URI location) throws IOException;
+}
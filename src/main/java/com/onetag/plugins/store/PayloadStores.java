@@ -0,0 +1,42 @@
+package com.onetag.plugins.store;
+
+import java.io.File;
+import java.net.URI;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.google.common.base.Strings;
+
+/**
+ * Creates {@link PayloadStore}s from their URIs.
+ */
+public final class PayloadStores {
+
+  private PayloadStores() {}
+
+  /**
+   * Creates the store identified by a URI, either an S3 bucket and optional key prefix, for example
+   * "s3://my-bucket/payloads/", or a local directory, for example "file:///tmp/payloads".
+   *
+   * @param uri the URI of the store.
+   * @param credentials the credentials to access S3 with.
+   * @param awsRegion the AWS region the S3 bucket exists in.
+   * @throws IllegalArgumentException if the URI scheme isn't supported.
+   */
+  public static PayloadStore create(String uri, AWSCredentialsProvider credentials, String awsRegion) {
+    URI location = URI.create(uri);
+    if ("s3".equals(location.getScheme())) {
+      String prefix = Strings.nullToEmpty(location.getPath()).replaceFirst("^/", "");
+      if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+        prefix += "/";
+      }
+      return new S3PayloadStore(AmazonS3ClientBuilder.standard()
+          .withRegion(awsRegion)
+          .withCredentials(credentials)
+          .build(), location.getHost(), prefix);
+    } else if ("file".equals(location.getScheme())) {
+      return new LocalPayloadStore(new File(location));
+    }
+    throw new IllegalArgumentException("Unsupported payload store: " + uri);
+  }
+}
@@ -0,0 +1,80 @@
+package com.onetag.plugins.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+
+/**
+ * A {@link PayloadStore} backed by an S3 bucket. Files over 5 MB are uploaded in parts that are
+ * sent in parallel, and smaller files in a single request. Payloads are gzipped before they are
+ * stored, so a JSON payload of a few megabytes usually compresses to well under 5 MB and goes up in
+ * a single request.
+ */
+public class S3PayloadStore implements PayloadStore {
+
+  // S3 doesn't accept parts smaller than 5 MB, other than the last part of an upload, so this is
+  // also the smallest file worth splitting
+  private static final long PART_SIZE_BYTES = 5L * 1024 * 1024;
+  private final AmazonS3 s3;
+  private final TransferManager transferManager;
+  private final String bucket;
+  private final String prefix;
+
+  /**
+   * @param s3 the AWS S3 API client.
+   * @param bucket the bucket objects are stored in.
+   * @param prefix prepended to the key of every object stored, for example "payloads/".
+   */
+  public S3PayloadStore(AmazonS3 s3, String bucket, String prefix) {
+    this.s3 = s3;
+    this.transferManager = TransferManagerBuilder.standard()
+        .withS3Client(s3)
+        .withMultipartUploadThreshold(PART_SIZE_BYTES)
+        .withMinimumUploadPartSize(PART_SIZE_BYTES)
+        .build();
+    this.bucket = bucket;
+    this.prefix = prefix;
+  }
+
+  @Override
+  public URI put(String key, File source) throws IOException {
+    String objectKey = prefix + key;
+    try {
+      transferManager.upload(bucket, objectKey, source).waitForCompletion();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted uploading s3://" + bucket + "/" + objectKey);
+    } catch (AmazonClientException e) {
+      throw new IOException("Failed to upload s3://" + bucket + "/" + objectKey, e);
+    }
+    return URI.create("s3://" + bucket + "/" + objectKey);
+  }
+
+  @Override
+  public InputStream open(URI location) throws IOException {
+    // Locations come from execution outputs, so refuse anything outside of the bucket and prefix
+    String key = location.getPath() == null ? "" : location.getPath().replaceFirst("^/", "");
+    if (!"s3".equals(location.getScheme()) || !bucket.equals(location.getHost()) || key.isEmpty()
+        || !key.startsWith(prefix)) {
+      throw new IOException("Not a location in s3://" + bucket + "/" + prefix + ": " + location);
+    }
+    try {
+      return s3.getObject(bucket, key).getObjectContent();
+    } catch (AmazonClientException e) {
+      throw new IOException("Failed to download " + location, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    // also shuts down the S3 client
+    transferManager.shutdownNow();
+  }
+}
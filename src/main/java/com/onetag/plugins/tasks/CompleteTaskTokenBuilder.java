@@ -0,0 +1,140 @@
+package com.onetag.plugins.tasks;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+
+import com.onetag.plugins.callback.TaskHeartbeater;
+import com.onetag.plugins.callback.TaskTokenAction;
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+import com.onetag.plugins.util.StepFunctionsClients;
+
+/**
+ * A build step that binds the build to a Step Functions task token, for builds started by something
+ * other than {@link com.onetag.plugins.callback.TaskTokenTrigger}, such as a parameterized remote
+ * trigger. Heartbeats are sent for the token while the build runs, and it is completed with the
+ * result of the build when it finishes.
+ */
+public class CompleteTaskTokenBuilder extends Builder {
+
+  private final boolean useInstanceCredentials;
+  // These properties may include environment variables and must be interpolated
+  private final String awsAccessKeyId;
+  private final String awsSecretKey;
+  private final String awsRegion;
+  private final String taskToken;
+  private final String output;
+
+  @DataBoundConstructor
+  public CompleteTaskTokenBuilder(boolean useInstanceCredentials, @Nullable String awsAccessKeyId,
+      @Nullable String awsSecretKey, @Nullable String awsRegion, String taskToken, @Nullable String output) {
+    this.useInstanceCredentials = useInstanceCredentials;
+    this.awsAccessKeyId = Strings.nullToEmpty(awsAccessKeyId);
+    this.awsSecretKey = Strings.nullToEmpty(awsSecretKey);
+    this.awsRegion = Strings.nullToEmpty(awsRegion);
+    this.taskToken = taskToken;
+    this.output = Util.fixEmptyAndTrim(output);
+  }
+
+  @Override
+  public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+      throws IOException, InterruptedException {
+    EnvVars env = build.getEnvironment(listener);
+    env.overrideAll(build.getBuildVariables());
+    String token = Util.fixEmpty(env.expand(taskToken));
+    if (token == null) {
+      listener.error("No Step Functions task token to complete");
+      return false;
+    }
+    TaskTokenAction action = findAction(build, token);
+    if (action == null) {
+      AWSStepFunctions stepFunctions = createStepFunctionClient(InvokeStepFunctionConfig.builder()
+          .awsAccessKeyId(env.expand(awsAccessKeyId))
+          .awsSecretKey(env.expand(awsSecretKey))
+          .awsRegion(env.expand(awsRegion))
+          .build());
+      action = new TaskTokenAction(token, null, stepFunctions);
+      build.addAction(action);
+      registerHeartbeat(token, stepFunctions);
+    }
+    if (output != null) {
+      action.setOutput(env.expand(output));
+    }
+    listener.getLogger().println("The Step Functions task will be completed with the result of this build");
+    return true;
+  }
+
+  @Nullable
+  private static TaskTokenAction findAction(AbstractBuild<?, ?> build, String token) {
+    for (TaskTokenAction action : build.getActions(TaskTokenAction.class)) {
+      if (action.getTaskToken().equals(token)) {
+        return action;
+      }
+    }
+    return null;
+  }
+
+  // Just so we can mock out this call in tests
+  @VisibleForTesting AWSStepFunctions createStepFunctionClient(InvokeStepFunctionConfig config) {
+    return StepFunctionsClients.shared(config, useInstanceCredentials);
+  }
+
+  // Just so we can mock out this call in tests
+  @VisibleForTesting void registerHeartbeat(String token, AWSStepFunctions stepFunctions) {
+    TaskHeartbeater.get().register(token, stepFunctions);
+  }
+
+  public boolean isUseInstanceCredentials() {
+    return useInstanceCredentials;
+  }
+
+  public String getAwsAccessKeyId() {
+    return awsAccessKeyId;
+  }
+
+  public String getAwsSecretKey() {
+    return awsSecretKey;
+  }
+
+  public String getAwsRegion() {
+    return awsRegion;
+  }
+
+  public String getTaskToken() {
+    return taskToken;
+  }
+
+  public String getOutput() {
+    return output;
+  }
+
+  @Extension
+  public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+    @Override
+    public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+      return true;
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "AWS Step Functions Task Token Callback";
+    }
+  }
+}
@@ -1,34 +1,50 @@
 package com.onetag.plugins.tasks;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.AbortedException;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.stepfunctions.AWSStepFunctions;
-import com.amazonaws.services.stepfunctions.AWSStepFunctionsClientBuilder;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import hudson.AbortException;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.Builder;
 import hudson.util.VariableResolver;
 import net.sf.json.JSONObject;
 
+import com.onetag.plugins.actions.StepFunctionExecutionAction;
 import com.onetag.plugins.model.InvokeStepFunctionConfig;
 import com.onetag.plugins.model.InvokeStepFunctionResult;
+import com.onetag.plugins.store.ClaimCheck;
+import com.onetag.plugins.store.PayloadStores;
+import com.onetag.plugins.tasks.InvokeStepFunctionService.Operation;
+import com.onetag.plugins.util.AwsCredentialsProviders;
+import com.onetag.plugins.util.SingleFlight;
 import com.onetag.plugins.util.Sleeper;
+import com.onetag.plugins.util.StepFunctionsClients;
 import com.onetag.plugins.util.ThreadSleeper;
 
 /**
@@ -40,6 +56,8 @@ import com.onetag.plugins.util.ThreadSleeper;
  */
 public class InvokeStepFunctionBuilder extends Builder {
 
+  // Invocations in flight on this controller, checkpointed with the ARN of the execution they started
+  private static final SingleFlight<String, String> IN_FLIGHT = new SingleFlight<>();
   private final Sleeper sleeper;
   private final boolean useInstanceCredentials;
   // These properties may include build variables and must be interpolated
@@ -49,6 +67,11 @@ public class InvokeStepFunctionBuilder extends Builder {
   private final String stateMachineArn;
   private final String pollIntervalSeconds;
   private final String payload;
+  private String payloadStoreUri;
+  private boolean redriveFailedExecution;
+  private String redriveExecutionArn;
+  private boolean runOnAgent;
+  private boolean singleFlight;
 
   @DataBoundConstructor
   public InvokeStepFunctionBuilder(boolean useInstanceCredentials, @Nullable String awsAccessKeyId,
@@ -65,14 +88,133 @@ public class InvokeStepFunctionBuilder extends Builder {
   }
 
   @Override
-  public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+  public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+      throws IOException, InterruptedException {
     InvokeStepFunctionConfig config = buildConfig(build.getBuildVariableResolver());
-    InvokeStepFunctionService invoker = createService(createStepFunctionClient(config),
-        listener.getLogger(), config);
-    InvokeStepFunctionResult result = invoker.invoke();
+    StepFunctionExecutionAction redriven = findExecutionToRedrive(build, config);
+    if (redriveFailedExecution && redriven == null) {
+      listener.getLogger().println("No failed execution to redrive, starting a new execution");
+    }
+    String redriveArn = redriven != null ? redriven.getExecutionArn() : null;
+    Operation operation = redriveArn != null ? Operation.REDRIVE : Operation.INVOKE;
+    // On an agent, instance credentials are those of the agent, which may differ from one agent to the next
+    String agent = runOnAgent && useInstanceCredentials ? Strings.nullToEmpty(build.getBuiltOnStr()) : null;
+    InvokeStepFunctionResult result = singleFlight
+        ? IN_FLIGHT.execute(singleFlightKey(config, useInstanceCredentials, agent, redriveArn),
+            onStarted -> invokeShared(build, launcher, listener, config, operation, redriveArn, onStarted),
+            () -> listener.getLogger().println("Waiting for an identical invocation already in flight"),
+            executionArn -> {
+              listener.getLogger().println("Attached to shared execution with ARN: " + executionArn);
+              return invoke(build, launcher, listener, config, Operation.MONITOR, executionArn, arn -> {});
+            })
+        : invoke(build, launcher, listener, config, operation, redriveArn, arn -> {});
+    build.addAction(new StepFunctionExecutionAction(config.getStateMachineArn(), result.getExecutionArn(),
+        result.isSuccess(), redriven != null, redriven != null ? redriven.getRedriveOf() : null));
     return result.isSuccess();
   }
 
+  /**
+   * Identifies invocations that can share an execution: those of the same state machine with the
+   * same payload, or redrives of the same execution, with the same credentials and payload store.
+   *
+   * @param agent the name of the node whose instance credentials the invocation uses, or {@code null}
+   * if it doesn't use the instance credentials of an agent.
+   */
+  @VisibleForTesting static String singleFlightKey(InvokeStepFunctionConfig config, boolean useInstanceCredentials,
+      @Nullable String agent, @Nullable String redriveArn) {
+    String target = redriveArn != null
+        ? "redrive:" + redriveArn
+        : config.getStateMachineArn() + ":" + Strings.nullToEmpty(config.getPayload());
+    String credentials = StepFunctionsClients.key(config, useInstanceCredentials);
+    if (agent != null) {
+      credentials += "@" + agent;
+    }
+    // Hashed, as the payload may be large and the credentials must not be held in plain text
+    return Hashing.sha256().hashString(Joiner.on('\0').join(target,
+        Strings.nullToEmpty(config.getPayloadStoreUri()), credentials), StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Makes the invocation the builds sharing it wait on. If its build is aborted they take over
+   * awaiting the execution it started, so an interruption by the AWS SDK is rethrown as one.
+   */
+  private InvokeStepFunctionResult invokeShared(AbstractBuild<?, ?> build, Launcher launcher,
+      BuildListener listener, InvokeStepFunctionConfig config, Operation operation, @Nullable String redriveArn,
+      Consumer<String> onStarted) throws IOException, InterruptedException {
+    try {
+      return invoke(build, launcher, listener, config, operation, redriveArn, onStarted);
+    } catch (AbortedException e) {
+      throw (InterruptedException)new InterruptedException("Step Function invocation aborted").initCause(e);
+    }
+  }
+
+  private InvokeStepFunctionResult invoke(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener,
+      InvokeStepFunctionConfig config, Operation operation, @Nullable String executionArn,
+      Consumer<String> onStarted) throws IOException, InterruptedException {
+    return runOnAgent
+        ? invokeOnAgent(build, launcher, listener, config, operation, executionArn, onStarted)
+        : invokeOnController(build, listener, config, operation, executionArn, onStarted);
+  }
+
+  private InvokeStepFunctionResult invokeOnController(AbstractBuild<?, ?> build, BuildListener listener,
+      InvokeStepFunctionConfig config, Operation operation, @Nullable String executionArn,
+      Consumer<String> onStarted) throws IOException, InterruptedException {
+    try (ClaimCheck claimCheck = createClaimCheck(config, useInstanceCredentials, build.getRootDir())) {
+      InvokeStepFunctionService invoker = createService(createStepFunctionClient(config),
+          listener.getLogger(), config, claimCheck);
+      return operation.apply(invoker, executionArn, onStarted);
+    }
+  }
+
+  /**
+   * Invokes and polls the Step Function from the agent the build runs on, with the agent's own
+   * credentials and network path, so only the result and log lines pass through the controller.
+   */
+  @SuppressWarnings("unchecked")
+  private InvokeStepFunctionResult invokeOnAgent(AbstractBuild<?, ?> build, Launcher launcher,
+      BuildListener listener, InvokeStepFunctionConfig config, Operation operation, @Nullable String executionArn,
+      Consumer<String> onStarted) throws IOException, InterruptedException {
+    VirtualChannel channel = launcher.getChannel();
+    FilePath workspace = build.getWorkspace();
+    if (channel == null || workspace == null) {
+      throw new AbortException("Cannot invoke the Step Function on the agent, as it is offline");
+    }
+    return channel.call(new InvokeStepFunctionCallable(config, useInstanceCredentials, operation, executionArn,
+        workspace.getRemote(), listener, channel.export(Consumer.class, onStarted)));
+  }
+
+  /**
+   * Finds the execution to redrive: either the configured execution ARN, which is redriven whether or
+   * not {@link #isRedriveFailedExecution()} is set, or the failed execution of the same state machine
+   * in the previous build if it is.
+   *
+   * @return the execution to redrive, with {@link StepFunctionExecutionAction#getRedriveOf()} set to
+   * the build that originally ran it if known, or {@code null} if there's nothing to redrive.
+   */
+  @VisibleForTesting @Nullable StepFunctionExecutionAction findExecutionToRedrive(AbstractBuild<?, ?> build,
+      InvokeStepFunctionConfig config) {
+    String executionArn = Util.fixEmpty(Util.replaceMacro(redriveExecutionArn, build.getBuildVariableResolver()));
+    if (executionArn != null) {
+      return new StepFunctionExecutionAction(config.getStateMachineArn(), executionArn, false, true, null);
+    }
+    if (!redriveFailedExecution) {
+      return null;
+    }
+    Run<?, ?> previous = build.getPreviousBuild();
+    if (previous == null) {
+      return null;
+    }
+    for (StepFunctionExecutionAction action : previous.getActions(StepFunctionExecutionAction.class)) {
+      if (!action.isSuccess() && config.getStateMachineArn().equals(action.getStateMachineArn())) {
+        // Link back to the build that first ran the execution, even if it's been redriven before
+        String original = action.getRedriveOf() != null ? action.getRedriveOf() : previous.getExternalizableId();
+        return new StepFunctionExecutionAction(action.getStateMachineArn(), action.getExecutionArn(), false,
+            true, original);
+      }
+    }
+    return null;
+  }
+
   /**
    * Creates the final configuration for an execution of the build, interpolating any parameters
    * in the configuration.
@@ -83,7 +225,8 @@ public class InvokeStepFunctionBuilder extends Builder {
         .awsSecretKey(Util.replaceMacro(awsSecretKey, variableResolver))
         .awsRegion(Util.replaceMacro(awsRegion, variableResolver))
         .stateMachineArn(Util.replaceMacro(stateMachineArn, variableResolver))
-        .payload(Util.replaceMacro(payload, variableResolver));
+        .payload(Util.replaceMacro(payload, variableResolver))
+        .payloadStoreUri(Util.fixEmpty(Util.replaceMacro(payloadStoreUri, variableResolver)));
     if (!Strings.isNullOrEmpty(pollIntervalSeconds)) {
       builder.pollInterval(Duration.ofSeconds(Long.valueOf(Util.replaceMacro(pollIntervalSeconds,
           variableResolver))));
@@ -93,21 +236,29 @@ public class InvokeStepFunctionBuilder extends Builder {
 
   // Just so we can mock out this call in tests
   @VisibleForTesting AWSStepFunctions createStepFunctionClient(InvokeStepFunctionConfig config) {
-    AWSStepFunctionsClientBuilder builder = AWSStepFunctionsClientBuilder.standard()
-        .withRegion(config.getAwsRegion());
-    if (useInstanceCredentials) {
-      builder.withCredentials(new DefaultAWSCredentialsProviderChain());
-    } else {
-      builder.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(config.getAwsAccessKeyId(),
-          config.getAwsSecretKey())));
+    return StepFunctionsClients.create(config, useInstanceCredentials);
+  }
+
+  /**
+   * Creates the claim-check used to offload oversized payloads and outputs, or {@code null} if no
+   * payload store is configured.
+   */
+  @Nullable
+  static ClaimCheck createClaimCheck(InvokeStepFunctionConfig config, boolean useInstanceCredentials,
+      File downloadDirectory) {
+    if (config.getPayloadStoreUri() == null) {
+      return null;
     }
-    return builder.build();
+    AWSCredentialsProvider credentials = AwsCredentialsProviders.create(useInstanceCredentials,
+        config.getAwsAccessKeyId(), config.getAwsSecretKey());
+    return new ClaimCheck(PayloadStores.create(config.getPayloadStoreUri(), credentials, config.getAwsRegion()),
+        downloadDirectory);
   }
 
   // Just so we can mock out this call in tests
   @VisibleForTesting InvokeStepFunctionService createService(AWSStepFunctions stepFunctions,
-      PrintStream logger, InvokeStepFunctionConfig config) {
-    return new InvokeStepFunctionService(stepFunctions, config, logger, sleeper);
+      PrintStream logger, InvokeStepFunctionConfig config, @Nullable ClaimCheck claimCheck) {
+    return new InvokeStepFunctionService(stepFunctions, config, logger, sleeper, claimCheck);
   }
 
   public boolean isUseInstanceCredentials() {
@@ -138,6 +289,51 @@ public class InvokeStepFunctionBuilder extends Builder {
     return payload;
   }
 
+  public String getPayloadStoreUri() {
+    return payloadStoreUri;
+  }
+
+  @DataBoundSetter
+  public void setPayloadStoreUri(String payloadStoreUri) {
+    this.payloadStoreUri = Util.fixEmptyAndTrim(payloadStoreUri);
+  }
+
+  public boolean isRedriveFailedExecution() {
+    return redriveFailedExecution;
+  }
+
+  @DataBoundSetter
+  public void setRedriveFailedExecution(boolean redriveFailedExecution) {
+    this.redriveFailedExecution = redriveFailedExecution;
+  }
+
+  public String getRedriveExecutionArn() {
+    return redriveExecutionArn;
+  }
+
+  @DataBoundSetter
+  public void setRedriveExecutionArn(String redriveExecutionArn) {
+    this.redriveExecutionArn = Util.fixEmptyAndTrim(redriveExecutionArn);
+  }
+
+  public boolean isRunOnAgent() {
+    return runOnAgent;
+  }
+
+  @DataBoundSetter
+  public void setRunOnAgent(boolean runOnAgent) {
+    this.runOnAgent = runOnAgent;
+  }
+
+  public boolean isSingleFlight() {
+    return singleFlight;
+  }
+
+  @DataBoundSetter
+  public void setSingleFlight(boolean singleFlight) {
+    this.singleFlight = singleFlight;
+  }
+
   @Extension
   public static class DescriptorImpl extends Descriptor<Builder> {
     private boolean useInstanceCredentials;
@@ -0,0 +1,84 @@
+package com.onetag.plugins.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.google.common.annotations.VisibleForTesting;
+
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+import com.onetag.plugins.model.InvokeStepFunctionResult;
+import com.onetag.plugins.store.ClaimCheck;
+import com.onetag.plugins.tasks.InvokeStepFunctionService.Operation;
+import com.onetag.plugins.util.StepFunctionsClients;
+import com.onetag.plugins.util.ThreadSleeper;
+
+/**
+ * Invokes a Step Function and awaits its completion on an agent, rather than on the controller.
+ * The AWS clients are created on the agent, so they use the agent's credentials and network path,
+ * and only the result and log lines are sent back to the controller.
+ */
+class InvokeStepFunctionCallable extends MasterToSlaveCallable<InvokeStepFunctionResult, IOException> {
+
+  private static final long serialVersionUID = 1L;
+  private final InvokeStepFunctionConfig config;
+  private final boolean useInstanceCredentials;
+  private final Operation operation;
+  private final String executionArn;
+  private final String downloadDirectory;
+  private final TaskListener listener;
+  private final Consumer<String> onStarted;
+
+  /**
+   * @param config the configuration for this job execution.
+   * @param useInstanceCredentials whether to use the credentials of the agent instance.
+   * @param operation what to do with the execution.
+   * @param executionArn the ARN of the execution to redrive or monitor, or {@code null} to start a
+   * new execution.
+   * @param downloadDirectory the path on the agent offloaded outputs are downloaded to.
+   * @param listener the build listener, whose log lines are streamed back to the controller.
+   * @param onStarted called with the ARN of the execution once it has started, exported from the
+   * controller so the call is made there.
+   */
+  InvokeStepFunctionCallable(InvokeStepFunctionConfig config, boolean useInstanceCredentials, Operation operation,
+      @Nullable String executionArn, String downloadDirectory, TaskListener listener, Consumer<String> onStarted) {
+    this.config = config;
+    this.useInstanceCredentials = useInstanceCredentials;
+    this.operation = operation;
+    this.executionArn = executionArn;
+    this.downloadDirectory = downloadDirectory;
+    this.listener = listener;
+    this.onStarted = onStarted;
+  }
+
+  @Override
+  public InvokeStepFunctionResult call() throws IOException {
+    AWSStepFunctions stepFunctions = createStepFunctionClient();
+    try (ClaimCheck claimCheck = InvokeStepFunctionBuilder.createClaimCheck(config, useInstanceCredentials,
+        new File(downloadDirectory))) {
+      InvokeStepFunctionService invoker = new InvokeStepFunctionService(stepFunctions, config,
+          listener.getLogger(), new ThreadSleeper(), claimCheck);
+      return operation.apply(invoker, executionArn, onStarted);
+    } catch (InterruptedException e) {
+      // Aborting the build on the controller cancels this call, which interrupts it
+      Thread.currentThread().interrupt();
+      throw (InterruptedIOException)new InterruptedIOException("Interrupted awaiting the Step Function")
+          .initCause(e);
+    } finally {
+      // The agent may run many builds, so don't leave a connection pool behind for each one
+      stepFunctions.shutdown();
+    }
+  }
+
+  // Just so we can mock out this call in tests
+  @VisibleForTesting AWSStepFunctions createStepFunctionClient() {
+    return StepFunctionsClients.create(config, useInstanceCredentials);
+  }
+}
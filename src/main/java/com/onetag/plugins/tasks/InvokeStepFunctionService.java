@@ -1,17 +1,26 @@
 package com.onetag.plugins.tasks;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
 
 import com.amazonaws.services.stepfunctions.AWSStepFunctions;
 import com.amazonaws.services.stepfunctions.model.DescribeExecutionRequest;
 import com.amazonaws.services.stepfunctions.model.DescribeExecutionResult;
 import com.amazonaws.services.stepfunctions.model.ExecutionStatus;
+import com.amazonaws.services.stepfunctions.model.RedriveExecutionRequest;
 import com.amazonaws.services.stepfunctions.model.StartExecutionRequest;
 import com.amazonaws.services.stepfunctions.model.StartExecutionResult;
 import com.google.common.annotations.VisibleForTesting;
 
 import com.onetag.plugins.model.InvokeStepFunctionResult;
 import com.onetag.plugins.model.InvokeStepFunctionConfig;
+import com.onetag.plugins.store.ClaimCheck;
 import com.onetag.plugins.util.Sleeper;
 
 /**
@@ -22,10 +31,45 @@ import com.onetag.plugins.util.Sleeper;
  */
 public class InvokeStepFunctionService {
 
+  /**
+   * What to do with an execution, so the choice can be made on the controller and carried out on an
+   * agent.
+   */
+  public enum Operation {
+    /** Start a new execution and await its completion. */
+    INVOKE {
+      @Override
+      InvokeStepFunctionResult apply(InvokeStepFunctionService service, @Nullable String executionArn,
+          Consumer<String> onStarted) throws InterruptedException {
+        return service.invoke(onStarted);
+      }
+    },
+    /** Redrive the given execution and await its completion. */
+    REDRIVE {
+      @Override
+      InvokeStepFunctionResult apply(InvokeStepFunctionService service, @Nullable String executionArn,
+          Consumer<String> onStarted) throws InterruptedException {
+        return service.redrive(executionArn, onStarted);
+      }
+    },
+    /** Await the completion of the given execution, started elsewhere. */
+    MONITOR {
+      @Override
+      InvokeStepFunctionResult apply(InvokeStepFunctionService service, @Nullable String executionArn,
+          Consumer<String> onStarted) throws InterruptedException {
+        return service.monitor(executionArn);
+      }
+    };
+
+    abstract InvokeStepFunctionResult apply(InvokeStepFunctionService service, @Nullable String executionArn,
+        Consumer<String> onStarted) throws InterruptedException;
+  }
+
   private final AWSStepFunctions stepFunctions;
   private final InvokeStepFunctionConfig config;
   private final PrintStream log;
   private final Sleeper sleeper;
+  private final ClaimCheck claimCheck;
 
   /**
    * @param stepFunctions the AWS Step Function API client.
@@ -35,10 +79,24 @@ public class InvokeStepFunctionService {
    */
   public InvokeStepFunctionService(AWSStepFunctions stepFunctions, InvokeStepFunctionConfig config,
       PrintStream log, Sleeper sleeper) {
+    this(stepFunctions, config, log, sleeper, null);
+  }
+
+  /**
+   * @param stepFunctions the AWS Step Function API client.
+   * @param config the configuration for this job execution.
+   * @param log a stream to log output to.
+   * @param sleeper used to delay polling attempts for results.
+   * @param claimCheck offloads oversized payloads and downloads offloaded outputs, or {@code null} to
+   * pass payloads and outputs as they are.
+   */
+  public InvokeStepFunctionService(AWSStepFunctions stepFunctions, InvokeStepFunctionConfig config,
+      PrintStream log, Sleeper sleeper, @Nullable ClaimCheck claimCheck) {
     this.stepFunctions = stepFunctions;
     this.config = config;
     this.log = log;
     this.sleeper = sleeper;
+    this.claimCheck = claimCheck;
   }
 
   /**
@@ -46,38 +104,164 @@ public class InvokeStepFunctionService {
    *
    * @return an object detailing the result of the invocation.
    */
-  public InvokeStepFunctionResult invoke() {
+  public InvokeStepFunctionResult invoke() throws InterruptedException {
+    return invoke(executionArn -> {});
+  }
+
+  /**
+   * Invokes the Step Function defined by the configuration this instance was constructed with.
+   *
+   * @param onStarted called with the ARN of the execution once it has started.
+   * @return an object detailing the result of the invocation.
+   * @throws InterruptedException if interrupted while awaiting completion, for example by the build
+   * being aborted, which leaves the execution running.
+   */
+  public InvokeStepFunctionResult invoke(Consumer<String> onStarted) throws InterruptedException {
     StartExecutionResult startExecutionResult = startExecution();
     String executionArn = startExecutionResult.getExecutionArn();
     log.println("Started execution with ARN: " + executionArn);
-    DescribeExecutionResult result = awaitCompletion(executionArn);
+    onStarted.accept(executionArn);
+    return buildResult(executionArn, awaitCompletion(executionArn));
+  }
+
+  /**
+   * Awaits the completion of an execution started elsewhere, for example by an identical invocation
+   * whose result is shared.
+   *
+   * @param executionArn the ARN of the execution.
+   * @return an object detailing the result of the execution.
+   */
+  public InvokeStepFunctionResult monitor(String executionArn) throws InterruptedException {
+    log.println("Awaiting execution with ARN: " + executionArn);
+    return buildResult(executionArn, awaitCompletion(executionArn));
+  }
+
+  /**
+   * Redrives a failed, aborted or timed out execution from the state it stopped in, rather than
+   * re-running the whole Step Function, and awaits its completion.
+   *
+   * @param executionArn the ARN of the execution to redrive.
+   * @return an object detailing the result of the redriven execution.
+   */
+  public InvokeStepFunctionResult redrive(String executionArn) throws InterruptedException {
+    return redrive(executionArn, redrivenArn -> {});
+  }
+
+  /**
+   * Redrives a failed, aborted or timed out execution from the state it stopped in, rather than
+   * re-running the whole Step Function, and awaits its completion. An execution that already
+   * succeeded isn't redriven, and one that is still running is awaited instead.
+   *
+   * @param executionArn the ARN of the execution to redrive.
+   * @param onStarted called with the ARN of the execution once the redrive has started.
+   * @return an object detailing the result of the redriven execution.
+   * @throws IllegalArgumentException if the execution isn't one of the configured state machine.
+   */
+  public InvokeStepFunctionResult redrive(String executionArn, Consumer<String> onStarted)
+      throws InterruptedException {
+    DescribeExecutionResult stopped = describe(executionArn);
+    if (!config.getStateMachineArn().equals(stopped.getStateMachineArn())) {
+      throw new IllegalArgumentException(String.format("Execution %s is of state machine %s, not %s",
+          executionArn, stopped.getStateMachineArn(), config.getStateMachineArn()));
+    }
+    if (ExecutionStatus.SUCCEEDED.name().equals(stopped.getStatus())
+        || ExecutionStatus.RUNNING.name().equals(stopped.getStatus())) {
+      log.println(String.format("Not redriving execution with ARN %s, as its status is %s", executionArn,
+          stopped.getStatus()));
+      onStarted.accept(executionArn);
+      return buildResult(executionArn, awaitCompletion(executionArn, stopped));
+    }
+    log.println("Redriving execution with ARN: " + executionArn);
+    stepFunctions.redriveExecution(new RedriveExecutionRequest().withExecutionArn(executionArn));
+    DescribeExecutionResult redriven = awaitRedrive(executionArn, stopped);
+    onStarted.accept(executionArn);
+    return buildResult(executionArn, awaitCompletion(executionArn, redriven));
+  }
+
+  /**
+   * Waits for the redrive to show up in the execution's description. DescribeExecution is eventually
+   * consistent, so right after a redrive it may still describe the execution as it was before, and
+   * the stale status would be taken as the final one.
+   *
+   * @param stopped the description of the execution from before it was redriven.
+   * @return the first description of the execution that reflects the redrive.
+   */
+  private DescribeExecutionResult awaitRedrive(String executionArn, DescribeExecutionResult stopped)
+      throws InterruptedException {
+    int redriveCount = redriveCount(stopped);
+    DescribeExecutionResult result = describe(executionArn);
+    while (redriveCount(result) <= redriveCount && Objects.equals(result.getStatus(), stopped.getStatus())) {
+      log.println("Redrive not yet visible, sleeping for " + config.getPollInterval());
+      sleeper.sleep(config.getPollInterval().toMillis());
+      result = describe(executionArn);
+    }
+    return result;
+  }
+
+  private static int redriveCount(DescribeExecutionResult result) {
+    return result.getRedriveCount() == null ? 0 : result.getRedriveCount();
+  }
+
+  private DescribeExecutionResult describe(String executionArn) {
+    return stepFunctions.describeExecution(new DescribeExecutionRequest().withExecutionArn(executionArn));
+  }
+
+  private InvokeStepFunctionResult buildResult(String executionArn, DescribeExecutionResult result) {
     return InvokeStepFunctionResult.builder()
         .executionArn(executionArn)
         .output(result.getOutput())
+        .outputFile(checkOut(executionArn, result.getOutput()))
         .success(result.getStatus().equals(ExecutionStatus.SUCCEEDED.name()))
         .build();
   }
 
   private StartExecutionResult startExecution() {
+    String payload = checkIn(config.getPayload());
     log.println(String.format("Invoking Step Function %s with payload %s", config.getStateMachineArn(),
-        config.getPayload()));
+        payload));
     StartExecutionRequest request = new StartExecutionRequest()
         .withStateMachineArn(config.getStateMachineArn())
-        .withInput(config.getPayload());
+        .withInput(payload);
     return stepFunctions.startExecution(request);
   }
 
-  @VisibleForTesting DescribeExecutionResult awaitCompletion(String executionArn) {
-    DescribeExecutionResult result = stepFunctions.describeExecution(new DescribeExecutionRequest()
-        .withExecutionArn(executionArn));
-    while (ExecutionStatus.RUNNING.name().equals(result.getStatus())) {
-      try {
-        log.println("Function still executing, sleeping for " + config.getPollInterval());
-        sleeper.sleep(config.getPollInterval().toMillis());
-      } catch (InterruptedException e) {
-        // ignore
+  private String checkIn(String payload) {
+    if (claimCheck == null) {
+      return payload;
+    }
+    try {
+      return claimCheck.checkIn(payload);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to offload payload", e);
+    }
+  }
+
+  private File checkOut(String executionArn, String output) {
+    if (claimCheck == null) {
+      return null;
+    }
+    try {
+      String executionName = executionArn.substring(executionArn.lastIndexOf(':') + 1);
+      File outputFile = claimCheck.checkOut(output, executionName + "-output.json");
+      if (outputFile != null) {
+        log.println("Downloaded offloaded output to " + outputFile);
       }
-      result = stepFunctions.describeExecution(new DescribeExecutionRequest().withExecutionArn(executionArn));
+      return outputFile;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to download offloaded output", e);
+    }
+  }
+
+  @VisibleForTesting DescribeExecutionResult awaitCompletion(String executionArn) throws InterruptedException {
+    return awaitCompletion(executionArn, describe(executionArn));
+  }
+
+  private DescribeExecutionResult awaitCompletion(String executionArn, DescribeExecutionResult result)
+      throws InterruptedException {
+    while (ExecutionStatus.RUNNING.name().equals(result.getStatus())) {
+      log.println("Function still executing, sleeping for " + config.getPollInterval());
+      sleeper.sleep(config.getPollInterval().toMillis());
+      result = describe(executionArn);
     }
     log.println("Final execution status: " + result.getStatus());
     log.println("Output: " + result.getOutput());
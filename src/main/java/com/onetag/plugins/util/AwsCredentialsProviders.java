@@ -0,0 +1,28 @@
+package com.onetag.plugins.util;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+
+/**
+ * Creates the AWS credentials configured for a build step, trigger or job property.
+ */
+public final class AwsCredentialsProviders {
+
+  private AwsCredentialsProviders() {}
+
+  /**
+   * @param useInstanceCredentials whether to use the credentials of the instance Jenkins runs on,
+   * rather than an access key.
+   * @param awsAccessKeyId the access key ID, ignored if using instance credentials.
+   * @param awsSecretKey the secret key, ignored if using instance credentials.
+   */
+  public static AWSCredentialsProvider create(boolean useInstanceCredentials, String awsAccessKeyId,
+      String awsSecretKey) {
+    if (useInstanceCredentials) {
+      return new DefaultAWSCredentialsProviderChain();
+    }
+    return new AWSStaticCredentialsProvider(new BasicAWSCredentials(awsAccessKeyId, awsSecretKey));
+  }
+}
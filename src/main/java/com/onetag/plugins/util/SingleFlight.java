@@ -0,0 +1,138 @@
+package com.onetag.plugins.util;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces identical concurrent calls, so that while a call for a key is in flight, later callers
+ * with the same key wait for it instead of making their own call. The call records a checkpoint,
+ * such as the ID of the work it started, and once it finishes, successfully or not, each waiting
+ * caller resumes from the checkpoint to produce its own result. If the caller making the call is
+ * interrupted, one of the waiting callers takes over from the checkpoint, and the others wait for it
+ * instead.
+ *
+ * @param <K> the type of key identifying identical calls.
+ * @param <C> the type of checkpoint.
+ */
+public class SingleFlight<K, C> {
+
+  private final ConcurrentMap<K, Flight<C>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * A call that can be shared.
+   */
+  public interface Call<V, C> {
+    /**
+     * @param checkpoint records how far the call has got, for callers waiting on it to resume from.
+     */
+    V call(Consumer<C> checkpoint) throws IOException, InterruptedException;
+  }
+
+  /**
+   * Produces a waiting caller's result once the call it waited on is done with.
+   */
+  public interface Resume<V, C> {
+    V resume(C checkpoint) throws IOException, InterruptedException;
+  }
+
+  /**
+   * Makes a call, unless an identical call is already in flight, in which case this caller waits
+   * for it and then resumes from its checkpoint, whether the call succeeded or not. The failure of
+   * a shared call is only rethrown to the callers waiting on it if the call failed before it
+   * recorded a checkpoint, and wasn't interrupted. If the call was interrupted before it recorded a
+   * checkpoint, the waiting callers make the call again, one of them in flight for the others.
+   *
+   * @param key identifies identical calls.
+   * @param call the call to make if none is in flight for the key.
+   * @param onJoin run before waiting if a call is already in flight for the key.
+   * @param resume produces the result of a caller that waited on a call.
+   * @return the result of the call, or of resuming from its checkpoint.
+   * @throws IOException if the call failed.
+   * @throws InterruptedException if this caller was interrupted.
+   */
+  public <V> V execute(K key, Call<V, C> call, Runnable onJoin, Resume<V, C> resume)
+      throws IOException, InterruptedException {
+    boolean joined = false;
+    while (true) {
+      Flight<C> flight = new Flight<>();
+      Flight<C> existing = inFlight.putIfAbsent(key, flight);
+      if (existing == null) {
+        return lead(key, flight, call);
+      }
+      if (!joined) {
+        onJoin.run();
+        joined = true;
+      }
+      try {
+        join(existing);
+      } catch (IOException | RuntimeException e) {
+        if (existing.checkpoint == null) {
+          throw e;
+        }
+        // The call failed after it got far enough for this caller to carry on by itself
+      }
+      C checkpoint = existing.checkpoint;
+      if (checkpoint != null && !existing.interrupted) {
+        return resume.resume(checkpoint);
+      }
+      if (checkpoint != null) {
+        // Take over from where the interrupted call got to, with the other callers waiting on us
+        call = recorder -> {
+          recorder.accept(checkpoint);
+          return resume.resume(checkpoint);
+        };
+      }
+    }
+  }
+
+  private <V> V lead(K key, Flight<C> flight, Call<V, C> call) throws IOException, InterruptedException {
+    V result;
+    try {
+      result = call.call(checkpoint -> flight.checkpoint = checkpoint);
+    } catch (InterruptedException e) {
+      flight.interrupted = true;
+      land(key, flight, null);
+      throw e;
+    } catch (IOException | RuntimeException | Error e) {
+      land(key, flight, e);
+      throw e;
+    }
+    land(key, flight, null);
+    return result;
+  }
+
+  // Removes the flight before waking the callers waiting on it, so none of them joins it again
+  private void land(K key, Flight<C> flight, Throwable failure) {
+    inFlight.remove(key, flight);
+    if (failure == null) {
+      flight.done.complete(null);
+    } else {
+      flight.done.completeExceptionally(failure);
+    }
+  }
+
+  private static void join(Flight<?> flight) throws IOException, InterruptedException {
+    try {
+      flight.done.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new IOException(cause.getMessage(), cause);
+    }
+  }
+
+  private static class Flight<C> {
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile C checkpoint;
+    private volatile boolean interrupted;
+  }
+}
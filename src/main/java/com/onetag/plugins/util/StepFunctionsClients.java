@@ -0,0 +1,108 @@
+package com.onetag.plugins.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.AWSStepFunctionsClientBuilder;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.hash.Hashing;
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.reflect.Reflection;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+
+/**
+ * Creates AWS Step Function API clients, optionally shared between builds with the same credentials
+ * and region so that many concurrent builds don't each hold their own connection pool.
+ */
+public final class StepFunctionsClients {
+
+  // Long enough that clients of running builds, used at least by every heartbeat, never expire
+  private static final long SHARED_EXPIRY_MINUTES = 30;
+  // Keyed by a hash of the credentials and region, so secrets aren't held as keys
+  private static final Cache<String, AWSStepFunctions> CLIENTS = CacheBuilder.newBuilder()
+      .expireAfterAccess(SHARED_EXPIRY_MINUTES, TimeUnit.MINUTES)
+      .removalListener((RemovalListener<String, AWSStepFunctions>) removal -> removal.getValue().shutdown())
+      .build();
+
+  private StepFunctionsClients() {}
+
+  /**
+   * Returns a handle to the client shared by every caller with the same credentials and region. The
+   * client behind it is created on first use, and shut down once it hasn't been used for a while, for
+   * example after the credentials were changed. The handle can be held on to regardless, as it
+   * creates the client again if it is used after that, and shutting down the handle does nothing.
+   *
+   * @param config provides the credentials and region of the client, other properties are ignored.
+   * @param useInstanceCredentials whether to use the credentials of the instance Jenkins runs on,
+   * rather than the access key in the configuration.
+   * @return a handle to the shared client.
+   */
+  public static AWSStepFunctions shared(InvokeStepFunctionConfig config, boolean useInstanceCredentials) {
+    return Reflection.newProxy(AWSStepFunctions.class, new SharedClientHandler(config, useInstanceCredentials));
+  }
+
+  /**
+   * @return identifies the credentials and region of a client, hashing rather than containing the
+   * secret key, for example to key shared clients by.
+   */
+  public static String key(InvokeStepFunctionConfig config, boolean useInstanceCredentials) {
+    String credentials = useInstanceCredentials
+        ? "instance"
+        : Strings.nullToEmpty(config.getAwsAccessKeyId()) + ":" + Strings.nullToEmpty(config.getAwsSecretKey());
+    return Strings.nullToEmpty(config.getAwsRegion()) + ":"
+        + Hashing.sha256().hashString(credentials, StandardCharsets.UTF_8);
+  }
+
+  private static class SharedClientHandler extends AbstractInvocationHandler {
+
+    private final InvokeStepFunctionConfig config;
+    private final boolean useInstanceCredentials;
+    private final String key;
+
+    private SharedClientHandler(InvokeStepFunctionConfig config, boolean useInstanceCredentials) {
+      this.config = config;
+      this.useInstanceCredentials = useInstanceCredentials;
+      this.key = key(config, useInstanceCredentials);
+    }
+
+    @Override
+    protected Object handleInvocation(Object proxy, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("shutdown")) {
+        return null;
+      }
+      try {
+        return method.invoke(CLIENTS.get(key, () -> create(config, useInstanceCredentials)), args);
+      } catch (InvocationTargetException | ExecutionException | UncheckedExecutionException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Shared AWS Step Functions client " + key;
+    }
+  }
+
+  /**
+   * @param config provides the credentials and region of the client, other properties are ignored.
+   * @param useInstanceCredentials whether to use the credentials of the instance the client is
+   * created on, rather than the access key in the configuration.
+   * @return a new client.
+   */
+  public static AWSStepFunctions create(InvokeStepFunctionConfig config, boolean useInstanceCredentials) {
+    return AWSStepFunctionsClientBuilder.standard()
+        .withRegion(config.getAwsRegion())
+        .withCredentials(AwsCredentialsProviders.create(useInstanceCredentials, config.getAwsAccessKeyId(),
+            config.getAwsSecretKey()))
+        .build();
+  }
+}
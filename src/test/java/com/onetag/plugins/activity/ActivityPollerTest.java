@@ -0,0 +1,188 @@
+package com.onetag.plugins.activity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.GetActivityTaskRequest;
+import com.amazonaws.services.stepfunctions.model.GetActivityTaskResult;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import hudson.model.AbstractProject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ActivityPollerTest extends Mockito {
+
+  private static final String ACTIVITY_ARN = "arn:aws:states:us-east-1:123456789012:activity:my_activity";
+  private static final GetActivityTaskRequest GET_ACTIVITY_TASK_REQUEST = new GetActivityTaskRequest()
+      .withActivityArn(ACTIVITY_ARN)
+      .withWorkerName("agent-1-0-my-job");
+  private @Mock AbstractProject<?, ?> job;
+  private @Mock AWSStepFunctions stepFunctions;
+  private @Mock AWSStepFunctions callbacks;
+  private @Mock IdleExecutors idleExecutors;
+  private @Mock ScheduledExecutorService scheduler;
+  private @Mock ScheduledFuture<?> next;
+  private ActivityPoller poller;
+
+  @Before
+  public void setUp() {
+    poller = spy(new ActivityPoller(job, ACTIVITY_ARN, stepFunctions, callbacks, "agent-1", "agent-1-0-my-job",
+        idleExecutors, scheduler));
+    when(idleExecutors.tryReserve()).thenReturn(true);
+    doReturn(next).when(scheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void pollOnce_task() {
+    doNothing().when(poller).schedule("task-token", "{}");
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST))
+        .thenReturn(new GetActivityTaskResult().withTaskToken("task-token").withInput("{}"));
+    assertTrue(poller.pollOnce());
+    verify(poller).schedule("task-token", "{}");
+    verify(idleExecutors).release();
+  }
+
+  @Test
+  public void pollOnce_empty() {
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST)).thenReturn(new GetActivityTaskResult());
+    assertFalse(poller.pollOnce());
+    verify(poller, never()).schedule(anyString(), anyString());
+  }
+
+  @Test
+  public void pollOnce_error() {
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST)).thenThrow(new AmazonClientException("oops"));
+    assertFalse(poller.pollOnce());
+    verify(idleExecutors).release();
+  }
+
+  @Test
+  public void pollOnce_noIdleExecutor() {
+    when(idleExecutors.tryReserve()).thenReturn(false);
+    assertFalse(poller.pollOnce());
+    verify(stepFunctions, never()).getActivityTask(any(GetActivityTaskRequest.class));
+    verify(idleExecutors, never()).release();
+  }
+
+  @Test
+  public void start() {
+    CompletableFuture<Void> done = poller.start();
+    verify(scheduler).schedule(poller, 0, TimeUnit.MILLISECONDS);
+    assertFalse(done.isDone());
+  }
+
+  @Test
+  public void run_task() {
+    doNothing().when(poller).schedule("task-token", "{}");
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST))
+        .thenReturn(new GetActivityTaskResult().withTaskToken("task-token").withInput("{}"));
+    poller.run();
+    // Polls again straight away, as there may be more tasks waiting
+    verify(scheduler).schedule(poller, 0, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void run_backOff() {
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST)).thenReturn(new GetActivityTaskResult());
+    poller.run();
+    poller.run();
+    // Backing off is left to the scheduler, so no thread is held in the meantime
+    verify(scheduler).schedule(poller, ActivityPoller.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+    verify(scheduler).schedule(poller, 2 * ActivityPoller.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void run_error() {
+    doThrow(new IllegalStateException("oops")).when(poller).schedule("task-token", "{}");
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST))
+        .thenReturn(new GetActivityTaskResult().withTaskToken("task-token").withInput("{}"));
+    poller.run();
+    // Keeps polling after backing off, rather than dying silently
+    verify(scheduler).schedule(poller, ActivityPoller.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void stop_whileBackingOff() {
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST)).thenReturn(new GetActivityTaskResult());
+    CompletableFuture<Void> done = poller.start();
+    poller.run();
+    poller.stop();
+    verify(next).cancel(false);
+    assertTrue(done.isDone());
+  }
+
+  @Test
+  public void stop_whilePolling() {
+    CompletableFuture<Void> done = poller.start();
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST)).thenAnswer(invocation -> {
+      poller.stop();
+      assertFalse(done.isDone());
+      return new GetActivityTaskResult();
+    });
+    poller.run();
+    // Only done once the poll in flight has finished, so its client isn't shut down under it
+    assertTrue(done.isDone());
+    verify(next, never()).cancel(anyBoolean());
+    verify(scheduler, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void stop_whilePolling_task() {
+    doNothing().when(poller).schedule("task-token", "{}");
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST)).thenAnswer(invocation -> {
+      poller.stop();
+      return new GetActivityTaskResult().withTaskToken("task-token").withInput("{}");
+    });
+    poller.run();
+    // The task handed out by the poll in flight when stopped is still scheduled, not dropped
+    verify(poller).schedule("task-token", "{}");
+    verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void run_aborted() {
+    CompletableFuture<Void> done = poller.start();
+    when(stepFunctions.getActivityTask(GET_ACTIVITY_TASK_REQUEST)).thenThrow(new AbortedException());
+    poller.run();
+    assertTrue(done.isDone());
+    verify(scheduler, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void run_stopped() {
+    poller.stop();
+    poller.run();
+    verify(stepFunctions, never()).getActivityTask(any(GetActivityTaskRequest.class));
+    verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void pollOnce_stopped() {
+    poller.stop();
+    assertFalse(poller.pollOnce());
+    verify(stepFunctions, never()).getActivityTask(any(GetActivityTaskRequest.class));
+    verify(idleExecutors, never()).tryReserve();
+  }
+
+  @Test
+  public void nextBackoff() {
+    assertEquals(ActivityPoller.MIN_BACKOFF_MILLIS, ActivityPoller.nextBackoff(0));
+    assertEquals(2 * ActivityPoller.MIN_BACKOFF_MILLIS, ActivityPoller.nextBackoff(ActivityPoller.MIN_BACKOFF_MILLIS));
+    assertEquals(ActivityPoller.MAX_BACKOFF_MILLIS, ActivityPoller.nextBackoff(ActivityPoller.MAX_BACKOFF_MILLIS));
+  }
+}
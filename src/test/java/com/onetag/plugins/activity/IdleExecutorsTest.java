@@ -0,0 +1,57 @@
+package com.onetag.plugins.activity;
+
+import hudson.model.Queue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdleExecutorsTest extends Mockito {
+
+  private IdleExecutors idleExecutors;
+
+  @Before
+  public void setUp() {
+    idleExecutors = spy(new IdleExecutors("agent-1"));
+    doReturn(2).when(idleExecutors).countIdle();
+  }
+
+  @Test
+  public void tryReserve() {
+    assertTrue(idleExecutors.tryReserve());
+    assertTrue(idleExecutors.tryReserve());
+    // Both idle executors are reserved, even though neither is running anything yet
+    assertFalse(idleExecutors.tryReserve());
+  }
+
+  @Test
+  public void release() {
+    assertTrue(idleExecutors.tryReserve());
+    assertTrue(idleExecutors.tryReserve());
+    idleExecutors.release();
+    assertTrue(idleExecutors.tryReserve());
+  }
+
+  @Test
+  public void tryReserve_busy() {
+    doReturn(0).when(idleExecutors).countIdle();
+    assertFalse(idleExecutors.tryReserve());
+  }
+
+  @Test
+  public void countQueued() {
+    Queue.Item pinned = mock(Queue.Item.class);
+    Queue.Item otherNode = mock(Queue.Item.class);
+    Queue.Item unpinned = mock(Queue.Item.class);
+    when(pinned.getAction(NodeAssignmentAction.class)).thenReturn(new NodeAssignmentAction("agent-1"));
+    when(otherNode.getAction(NodeAssignmentAction.class)).thenReturn(new NodeAssignmentAction("agent-2"));
+    assertEquals(1, idleExecutors.countQueued(new Queue.Item[] {pinned, otherNode, unpinned}));
+  }
+}
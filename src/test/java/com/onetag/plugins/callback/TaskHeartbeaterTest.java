@@ -0,0 +1,118 @@
+package com.onetag.plugins.callback;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.SendTaskHeartbeatRequest;
+import com.amazonaws.services.stepfunctions.model.TaskDoesNotExistException;
+import com.amazonaws.services.stepfunctions.model.TaskTimedOutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import hudson.model.TaskListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TaskHeartbeaterTest extends Mockito {
+
+  private static final PrintStream STD_OUT = new PrintStream(new FileOutputStream(FileDescriptor.out));
+  private static final SendTaskHeartbeatRequest HEARTBEAT = new SendTaskHeartbeatRequest().withTaskToken("task-token");
+  private @Mock AWSStepFunctions stepFunctions;
+  private @Mock TaskListener listener;
+  private final ExecutorService executor = Executors.newFixedThreadPool(8);
+  private TaskHeartbeater heartbeater;
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Before
+  public void setUp() {
+    when(listener.getLogger()).thenReturn(STD_OUT);
+    heartbeater = new TaskHeartbeater(executor);
+    heartbeater.register("task-token", stepFunctions);
+  }
+
+  @Test
+  public void execute() throws InterruptedException {
+    heartbeater.register("other-token", stepFunctions);
+    heartbeater.execute(listener);
+    verify(stepFunctions).sendTaskHeartbeat(HEARTBEAT);
+    verify(stepFunctions).sendTaskHeartbeat(new SendTaskHeartbeatRequest().withTaskToken("other-token"));
+  }
+
+  @Test(timeout = 10_000)
+  public void execute_manyTokens() throws InterruptedException {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    when(stepFunctions.sendTaskHeartbeat(any(SendTaskHeartbeatRequest.class))).thenAnswer(invocation -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      Thread.sleep(10);
+      inFlight.decrementAndGet();
+      return null;
+    });
+    for (int i = 0; i < 300; i++) {
+      heartbeater.register("task-token-" + i, stepFunctions);
+    }
+    heartbeater.execute(listener);
+    // Every heartbeat is sent before the sweep returns, several at a time rather than one after another
+    verify(stepFunctions, times(301)).sendTaskHeartbeat(any(SendTaskHeartbeatRequest.class));
+    assertEquals(0, inFlight.get());
+    assertTrue(maxInFlight.get() > 1);
+  }
+
+  @Test
+  public void execute_unregistered() throws InterruptedException {
+    heartbeater.unregister("task-token");
+    heartbeater.execute(listener);
+    verify(stepFunctions, never()).sendTaskHeartbeat(any(SendTaskHeartbeatRequest.class));
+  }
+
+  @Test
+  public void execute_timedOut() throws InterruptedException {
+    when(stepFunctions.sendTaskHeartbeat(HEARTBEAT)).thenThrow(new TaskTimedOutException("timed out"));
+    heartbeater.execute(listener);
+    heartbeater.execute(listener);
+    // Expired tokens are dropped after the first failed heartbeat
+    verify(stepFunctions, times(1)).sendTaskHeartbeat(HEARTBEAT);
+  }
+
+  @Test
+  public void execute_doesNotExist() throws InterruptedException {
+    when(stepFunctions.sendTaskHeartbeat(HEARTBEAT)).thenThrow(new TaskDoesNotExistException("gone"));
+    heartbeater.execute(listener);
+    heartbeater.execute(listener);
+    verify(stepFunctions, times(1)).sendTaskHeartbeat(HEARTBEAT);
+  }
+
+  @Test
+  public void execute_error() throws InterruptedException {
+    when(stepFunctions.sendTaskHeartbeat(HEARTBEAT)).thenThrow(new AmazonClientException("oops"));
+    heartbeater.execute(listener);
+    heartbeater.execute(listener);
+    // Other errors may be transient, so the token is kept
+    verify(stepFunctions, times(2)).sendTaskHeartbeat(HEARTBEAT);
+  }
+
+  @Test
+  public void register_alreadyRegistered() {
+    assertFalse(heartbeater.register("task-token", stepFunctions));
+    assertTrue(heartbeater.register("other-token", stepFunctions));
+  }
+}
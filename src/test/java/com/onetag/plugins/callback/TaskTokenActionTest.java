@@ -0,0 +1,41 @@
+package com.onetag.plugins.callback;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.google.common.base.Strings;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import hudson.EnvVars;
+import hudson.model.Run;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TaskTokenActionTest extends Mockito {
+
+  private @Mock AWSStepFunctions stepFunctions;
+  private @Mock Run<?, ?> run;
+
+  @Test
+  public void buildEnvironment() {
+    EnvVars env = new EnvVars();
+    new TaskTokenAction("task-token", "{}", stepFunctions).buildEnvironment(run, env);
+    assertEquals("task-token", env.get(TaskTokenAction.TASK_TOKEN_VARIABLE));
+    assertEquals("{}", env.get(TaskTokenAction.INPUT_VARIABLE));
+  }
+
+  @Test
+  public void buildEnvironment_largeInput() {
+    EnvVars env = new EnvVars();
+    String input = "\"" + Strings.repeat("x", TaskTokenAction.MAX_INPUT_VARIABLE_BYTES) + "\"";
+    new TaskTokenAction("task-token", input, stepFunctions).buildEnvironment(run, env);
+    assertEquals("task-token", env.get(TaskTokenAction.TASK_TOKEN_VARIABLE));
+    // Left to the input file, as no process could be launched with it in the environment
+    assertFalse(env.containsKey(TaskTokenAction.INPUT_VARIABLE));
+  }
+}
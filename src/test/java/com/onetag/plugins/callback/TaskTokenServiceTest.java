@@ -0,0 +1,60 @@
+package com.onetag.plugins.callback;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.SendTaskFailureRequest;
+import com.amazonaws.services.stepfunctions.model.SendTaskHeartbeatRequest;
+import com.amazonaws.services.stepfunctions.model.SendTaskSuccessRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.onetag.plugins.model.InvokeStepFunctionResult;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TaskTokenServiceTest extends Mockito {
+
+  private static final String TASK_TOKEN = "task-token";
+  private static final String OUTPUT = "{\"job\":\"my-job\",\"number\":12,\"result\":\"SUCCESS\"}";
+  private @Mock AWSStepFunctions stepFunctions;
+  private TaskTokenService service;
+
+  @Before
+  public void setUp() {
+    service = new TaskTokenService(stepFunctions);
+  }
+
+  @Test
+  public void heartbeat() {
+    service.heartbeat(TASK_TOKEN);
+    verify(stepFunctions).sendTaskHeartbeat(new SendTaskHeartbeatRequest().withTaskToken(TASK_TOKEN));
+  }
+
+  @Test
+  public void complete_success() {
+    service.complete(TASK_TOKEN, InvokeStepFunctionResult.builder()
+        .success(true)
+        .output(OUTPUT)
+        .build());
+    verify(stepFunctions).sendTaskSuccess(new SendTaskSuccessRequest()
+        .withTaskToken(TASK_TOKEN)
+        .withOutput(OUTPUT));
+    verify(stepFunctions, never()).sendTaskFailure(any(SendTaskFailureRequest.class));
+  }
+
+  @Test
+  public void complete_failure() {
+    service.complete(TASK_TOKEN, InvokeStepFunctionResult.builder()
+        .success(false)
+        .output(OUTPUT)
+        .build());
+    verify(stepFunctions).sendTaskFailure(new SendTaskFailureRequest()
+        .withTaskToken(TASK_TOKEN)
+        .withError(TaskTokenService.BUILD_FAILED_ERROR)
+        .withCause(OUTPUT));
+    verify(stepFunctions, never()).sendTaskSuccess(any(SendTaskSuccessRequest.class));
+  }
+}
@@ -0,0 +1,27 @@
+package com.onetag.plugins.callback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskTokenTriggerTest {
+
+  @Test
+  public void isAuthorized() {
+    TaskTokenTrigger trigger = new TaskTokenTrigger("secret", true, null, null, "us-east-1");
+    assertTrue(trigger.isAuthorized("secret"));
+    assertFalse(trigger.isAuthorized("Secret"));
+    assertFalse(trigger.isAuthorized("secret2"));
+    assertFalse(trigger.isAuthorized(""));
+    assertFalse(trigger.isAuthorized(null));
+  }
+
+  @Test
+  public void isAuthorized_noAuthToken() {
+    // A trigger without an auth token accepts nothing, not even an empty token
+    TaskTokenTrigger trigger = new TaskTokenTrigger("", true, null, null, "us-east-1");
+    assertFalse(trigger.isAuthorized(""));
+    assertFalse(trigger.isAuthorized(null));
+  }
+}
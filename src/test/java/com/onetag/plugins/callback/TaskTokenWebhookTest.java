@@ -0,0 +1,113 @@
+package com.onetag.plugins.callback;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import hudson.model.AbstractProject;
+import hudson.model.Queue;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TaskTokenWebhookTest extends Mockito {
+
+  private static final String BODY = "{\"job\":\"my-job\",\"authToken\":\"secret\",\"taskToken\":\"task-token\","
+      + "\"input\":{\"message\":\"hello!\"}}";
+  private @Mock StaplerRequest req;
+  private @Mock AbstractProject<?, ?> job;
+  private @Mock TaskTokenTrigger trigger;
+  private @Mock Queue.ScheduleResult scheduleResult;
+  private TaskTokenWebhook webhook;
+
+  @Before
+  public void setUp() {
+    webhook = spy(new TaskTokenWebhook());
+    doReturn(job).when(webhook).findJob("my-job");
+    when(job.getTrigger(TaskTokenTrigger.class)).thenReturn(trigger);
+    when(trigger.isAuthorized("secret")).thenReturn(true);
+  }
+
+  @Test
+  public void doIndex_accepted() throws IOException, ServletException {
+    when(trigger.schedule(job, "task-token", "{\"message\":\"hello!\"}")).thenReturn(scheduleResult);
+    when(scheduleResult.isAccepted()).thenReturn(true);
+    assertEquals(HttpServletResponse.SC_ACCEPTED, status(webhook.doIndex(request(BODY))));
+  }
+
+  @Test
+  public void doIndex_alreadyScheduled() throws IOException, ServletException {
+    // A retried post of a token that's already bound to a build
+    when(trigger.schedule(job, "task-token", "{\"message\":\"hello!\"}")).thenReturn(null);
+    assertEquals(HttpServletResponse.SC_OK, status(webhook.doIndex(request(BODY))));
+  }
+
+  @Test
+  public void doIndex_notAccepted() throws IOException, ServletException {
+    when(trigger.schedule(job, "task-token", "{\"message\":\"hello!\"}")).thenReturn(scheduleResult);
+    when(scheduleResult.isAccepted()).thenReturn(false);
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status(webhook.doIndex(request(BODY))));
+  }
+
+  @Test
+  public void doIndex_notJson() throws IOException, ServletException {
+    assertEquals(HttpServletResponse.SC_BAD_REQUEST, status(webhook.doIndex(request("not json"))));
+    verify(webhook, never()).findJob(anyString());
+  }
+
+  @Test
+  public void doIndex_noTaskToken() throws IOException, ServletException {
+    assertEquals(HttpServletResponse.SC_BAD_REQUEST,
+        status(webhook.doIndex(request("{\"job\":\"my-job\",\"authToken\":\"secret\"}"))));
+    verify(webhook, never()).findJob(anyString());
+  }
+
+  @Test
+  public void doIndex_unknownJob() throws IOException, ServletException {
+    doReturn(null).when(webhook).findJob("other");
+    assertEquals(HttpServletResponse.SC_NOT_FOUND, status(webhook.doIndex(request(BODY.replace("my-job", "other")))));
+  }
+
+  @Test
+  public void doIndex_noTrigger() throws IOException, ServletException {
+    when(job.getTrigger(TaskTokenTrigger.class)).thenReturn(null);
+    assertEquals(HttpServletResponse.SC_NOT_FOUND, status(webhook.doIndex(request(BODY))));
+  }
+
+  @Test
+  public void doIndex_unauthorized() throws IOException, ServletException {
+    // Indistinguishable from a job that doesn't exist, and nothing is scheduled
+    assertEquals(HttpServletResponse.SC_NOT_FOUND, status(webhook.doIndex(request(BODY.replace("secret", "guess")))));
+    verify(trigger, never()).schedule(any(), anyString(), anyString());
+  }
+
+  private StaplerRequest request(String body) throws IOException {
+    when(req.getReader()).thenReturn(new BufferedReader(new StringReader(body)));
+    return req;
+  }
+
+  private int status(HttpResponse response) throws IOException, ServletException {
+    StaplerResponse rsp = mock(StaplerResponse.class);
+    when(rsp.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    response.generateResponse(req, rsp, null);
+    ArgumentCaptor<Integer> status = ArgumentCaptor.forClass(Integer.class);
+    verify(rsp).setStatus(status.capture());
+    return status.getValue();
+  }
+}
@@ -0,0 +1,117 @@
+package com.onetag.plugins.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Strings;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClaimCheckTest {
+
+  private static final String SMALL_PAYLOAD = "{\"message\":\"hello!\"}";
+  private static final String LARGE_PAYLOAD = "{\"message\":\"" + Strings.repeat("a", ClaimCheck.MAX_PAYLOAD_BYTES)
+      + "\"}";
+  public @Rule TemporaryFolder folder = new TemporaryFolder();
+  private File store;
+  private File downloads;
+  private ClaimCheck claimCheck;
+
+  @Before
+  public void setUp() throws IOException {
+    downloads = folder.newFolder("downloads");
+    store = folder.newFolder("store");
+    claimCheck = new ClaimCheck(new LocalPayloadStore(store), downloads);
+  }
+
+  @Test
+  public void checkIn_small() throws IOException {
+    assertEquals(SMALL_PAYLOAD, claimCheck.checkIn(SMALL_PAYLOAD));
+  }
+
+  @Test
+  public void checkIn_null() throws IOException {
+    assertNull(claimCheck.checkIn(null));
+  }
+
+  @Test
+  public void checkIn_large() throws IOException {
+    String pointer = claimCheck.checkIn(LARGE_PAYLOAD);
+    assertNotEquals(LARGE_PAYLOAD, pointer);
+    assertTrue(pointer.startsWith("{\"claimCheck\":{\"location\":\"file:"));
+    assertTrue(pointer.length() < 1024);
+  }
+
+  @Test
+  public void checkOut_roundTrip() throws IOException {
+    String pointer = claimCheck.checkIn(LARGE_PAYLOAD);
+    File output = claimCheck.checkOut(pointer, "output.json");
+    assertEquals(new File(downloads, "output.json"), output);
+    assertEquals(LARGE_PAYLOAD, new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void checkOut_uncompressed() throws IOException {
+    File stored = new File(store, "uncompressed.json");
+    Files.write(stored.toPath(), SMALL_PAYLOAD.getBytes(StandardCharsets.UTF_8));
+    File output = claimCheck.checkOut("{\"claimCheck\":{\"location\":\"" + stored.toURI() + "\"}}", "output.json");
+    assertEquals(SMALL_PAYLOAD, new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void checkOut_gzipped() throws IOException {
+    File stored = new File(store, "compressed.json.gz");
+    try (OutputStream out = new GZIPOutputStream(new FileOutputStream(stored))) {
+      out.write(SMALL_PAYLOAD.getBytes(StandardCharsets.UTF_8));
+    }
+    URI location = stored.toURI();
+    File output = claimCheck.checkOut("{\"claimCheck\":{\"location\":\"" + location + "\",\"encoding\":\"gzip\"}}",
+        "output.json");
+    assertEquals(SMALL_PAYLOAD, new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+  }
+
+  @Test(expected = IOException.class)
+  public void checkOut_outsideStore() throws IOException {
+    File secret = folder.newFile("secret.key");
+    claimCheck.checkOut("{\"claimCheck\":{\"location\":\"" + secret.toURI() + "\"}}", "output.json");
+  }
+
+  @Test(expected = IOException.class)
+  public void checkOut_traversal() throws IOException {
+    folder.newFile("secret.key");
+    claimCheck.checkOut("{\"claimCheck\":{\"location\":\"" + store.toURI() + "../secret.key\"}}",
+        "output.json");
+  }
+
+  @Test(expected = IOException.class)
+  public void checkOut_wrongScheme() throws IOException {
+    claimCheck.checkOut("{\"claimCheck\":{\"location\":\"s3://bucket/key\"}}", "output.json");
+  }
+
+  @Test(expected = IOException.class)
+  public void checkOut_invalidLocation() throws IOException {
+    claimCheck.checkOut("{\"claimCheck\":{\"location\":\"file:relative/path\"}}", "output.json");
+  }
+
+  @Test
+  public void checkOut_notPointer() throws IOException {
+    assertNull(claimCheck.checkOut(null, "output.json"));
+    assertNull(claimCheck.checkOut("some output", "output.json"));
+    assertNull(claimCheck.checkOut(SMALL_PAYLOAD, "output.json"));
+    assertNull(claimCheck.checkOut("{\"claimCheck\":{\"location\":\"s3://bucket/key\"},\"other\":1}", "output.json"));
+  }
+}
@@ -0,0 +1,54 @@
+package com.onetag.plugins.store;
+
+import java.io.IOException;
+import java.net.URI;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class S3PayloadStoreTest extends Mockito {
+
+  private @Mock AmazonS3 s3;
+  private S3PayloadStore store;
+
+  @Before
+  public void setUp() {
+    store = new S3PayloadStore(s3, "my-bucket", "payloads/");
+  }
+
+  @After
+  public void tearDown() {
+    store.close();
+  }
+
+  @Test
+  public void open() throws IOException {
+    when(s3.getObject("my-bucket", "payloads/output.json.gz")).thenReturn(new S3Object());
+    store.open(URI.create("s3://my-bucket/payloads/output.json.gz"));
+    verify(s3).getObject("my-bucket", "payloads/output.json.gz");
+  }
+
+  @Test(expected = IOException.class)
+  public void open_otherBucket() throws IOException {
+    store.open(URI.create("s3://other-bucket/payloads/output.json.gz"));
+  }
+
+  @Test(expected = IOException.class)
+  public void open_outsidePrefix() throws IOException {
+    store.open(URI.create("s3://my-bucket/secrets/output.json.gz"));
+  }
+
+  @Test(expected = IOException.class)
+  public void open_wrongScheme() throws IOException {
+    store.open(URI.create("file:///var/lib/jenkins/secrets/master.key"));
+  }
+}
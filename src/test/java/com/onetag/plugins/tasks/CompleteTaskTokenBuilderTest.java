@@ -0,0 +1,86 @@
+package com.onetag.plugins.tasks;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Collections;
+
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+
+import com.onetag.plugins.callback.TaskTokenAction;
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CompleteTaskTokenBuilderTest extends Mockito {
+
+  private static final String TASK_TOKEN = "task-token";
+  private static final PrintStream STD_OUT = new PrintStream(new FileOutputStream(FileDescriptor.out));
+  private @Mock AbstractBuild<?, ?> build;
+  private @Mock Launcher launcher;
+  private @Mock BuildListener buildListener;
+  private @Mock AWSStepFunctions stepFunctions;
+  private CompleteTaskTokenBuilder builder;
+
+  @Before
+  public void setUp() throws IOException, InterruptedException {
+    when(build.getEnvironment(buildListener)).thenReturn(new EnvVars(TaskTokenAction.TASK_TOKEN_VARIABLE, TASK_TOKEN));
+    when(build.getBuildVariables()).thenReturn(ImmutableMap.of("RESULT", "done"));
+    builder = spy(new CompleteTaskTokenBuilder(true, null, null, "us-east-1",
+        "${" + TaskTokenAction.TASK_TOKEN_VARIABLE + "}", "{\"result\":\"${RESULT}\"}"));
+  }
+
+  @Test
+  public void perform_bindsToken() throws IOException, InterruptedException {
+    when(buildListener.getLogger()).thenReturn(STD_OUT);
+    when(build.getActions(TaskTokenAction.class)).thenReturn(Collections.emptyList());
+    doReturn(stepFunctions).when(builder).createStepFunctionClient(InvokeStepFunctionConfig.builder()
+        .awsRegion("us-east-1")
+        .build());
+    doNothing().when(builder).registerHeartbeat(TASK_TOKEN, stepFunctions);
+    assertTrue(builder.perform(build, launcher, buildListener));
+    ArgumentCaptor<TaskTokenAction> action = ArgumentCaptor.forClass(TaskTokenAction.class);
+    verify(build).addAction(action.capture());
+    assertEquals(TASK_TOKEN, action.getValue().getTaskToken());
+    assertEquals("{\"result\":\"done\"}", action.getValue().getOutput());
+    verify(builder).registerHeartbeat(TASK_TOKEN, stepFunctions);
+  }
+
+  @Test
+  public void perform_alreadyBound() throws IOException, InterruptedException {
+    when(buildListener.getLogger()).thenReturn(STD_OUT);
+    TaskTokenAction existing = new TaskTokenAction(TASK_TOKEN, "{}", stepFunctions);
+    when(build.getActions(TaskTokenAction.class)).thenReturn(Collections.singletonList(existing));
+    assertTrue(builder.perform(build, launcher, buildListener));
+    assertEquals("{\"result\":\"done\"}", existing.getOutput());
+    verify(build, never()).addAction(any(TaskTokenAction.class));
+    verify(builder, never()).registerHeartbeat(anyString(), any(AWSStepFunctions.class));
+  }
+
+  @Test
+  public void perform_noToken() throws IOException, InterruptedException {
+    when(build.getEnvironment(buildListener)).thenReturn(new EnvVars());
+    when(buildListener.error(anyString())).thenReturn(new PrintWriter(STD_OUT));
+    builder = new CompleteTaskTokenBuilder(true, null, null, "us-east-1", "", null);
+    assertFalse(builder.perform(build, launcher, buildListener));
+  }
+}
@@ -3,29 +3,45 @@ package com.onetag.plugins.tasks;
 
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.DescribeExecutionResult;
+import com.amazonaws.services.stepfunctions.model.ExecutionStatus;
+import com.amazonaws.services.stepfunctions.model.StartExecutionResult;
 import com.google.common.collect.ImmutableMap;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import hudson.AbortException;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.util.VariableResolver;
 
+import com.onetag.plugins.actions.StepFunctionExecutionAction;
 import com.onetag.plugins.model.InvokeStepFunctionConfig;
 import com.onetag.plugins.model.InvokeStepFunctionResult;
+import com.onetag.plugins.util.Sleeper;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -36,6 +52,7 @@ import static org.junit.Assert.assertTrue;
 public class InvokeStepFunctionBuilderTest extends Mockito {
 
   private static final String STEP_FUNCTION_ARN = "arn:aws:states:us-east-1:123456789012:stateMachine:my_step_function";
+  private static final String EXECUTION_ARN = "arn:aws:states:us-east-1:123456789012:execution:my_step_function:execution-id";
   private static final String PAYLOAD = "{\"message\":\"hello!\"}";
   private static final PrintStream STD_OUT = new PrintStream(new FileOutputStream(FileDescriptor.out));
   private static final InvokeStepFunctionConfig CONFIG = InvokeStepFunctionConfig.builder()
@@ -51,30 +68,197 @@ public class InvokeStepFunctionBuilderTest extends Mockito {
   private InvokeStepFunctionBuilder builder;
 
   @Before
-  public void setUp() {
+  public void setUp() throws InterruptedException {
     when(build.getBuildVariables()).thenReturn(ImmutableMap.of());
     when(buildListener.getLogger()).thenReturn(STD_OUT);
     builder = spy(new InvokeStepFunctionBuilder(true, null, null, null, STEP_FUNCTION_ARN, "10", PAYLOAD));
     doReturn(stepFunctions).when(builder).createStepFunctionClient(any(InvokeStepFunctionConfig.class));
-    doReturn(service).when(builder).createService(stepFunctions, STD_OUT, CONFIG);
-    when(service.invoke()).thenReturn(InvokeStepFunctionResult.builder()
+    doReturn(service).when(builder).createService(stepFunctions, STD_OUT, CONFIG, null);
+    when(service.invoke(any())).thenReturn(InvokeStepFunctionResult.builder()
         .success(true)
         .build());
   }
 
   @Test
-  public void perform_success() {
+  public void perform_success() throws IOException, InterruptedException {
     assertTrue(builder.perform(build, launcher, buildListener));
   }
 
   @Test
-  public void perform_failure() {
-    when(service.invoke()).thenReturn(InvokeStepFunctionResult.builder()
+  public void perform_failure() throws IOException, InterruptedException {
+    when(service.invoke(any())).thenReturn(InvokeStepFunctionResult.builder()
         .success(false)
         .build());
     assertFalse(builder.perform(build, launcher, buildListener));
   }
 
+  @Test
+  public void perform_redriveExecutionArn() throws IOException, InterruptedException {
+    // The explicit ARN is redriven without redriveFailedExecution being set
+    builder.setRedriveExecutionArn(EXECUTION_ARN);
+    when(service.redrive(eq(EXECUTION_ARN), any())).thenReturn(InvokeStepFunctionResult.builder()
+        .executionArn(EXECUTION_ARN)
+        .success(true)
+        .build());
+    assertTrue(builder.perform(build, launcher, buildListener));
+    verify(service, never()).invoke(any());
+    ArgumentCaptor<StepFunctionExecutionAction> action = ArgumentCaptor.forClass(StepFunctionExecutionAction.class);
+    verify(build).addAction(action.capture());
+    assertTrue(action.getValue().isRedrive());
+    assertEquals(EXECUTION_ARN, action.getValue().getExecutionArn());
+    assertNull(action.getValue().getRedriveOf());
+  }
+
+  @Test
+  public void perform_noRedrive() throws IOException, InterruptedException {
+    assertTrue(builder.perform(build, launcher, buildListener));
+    verify(service, never()).redrive(anyString(), any());
+    ArgumentCaptor<StepFunctionExecutionAction> action = ArgumentCaptor.forClass(StepFunctionExecutionAction.class);
+    verify(build).addAction(action.capture());
+    assertFalse(action.getValue().isRedrive());
+  }
+
+  @Test(expected = AbortException.class)
+  public void perform_runOnAgent_offline() throws IOException, InterruptedException {
+    // The mocked launcher has no channel, as if the agent had disconnected
+    builder.setRunOnAgent(true);
+    try {
+      builder.perform(build, launcher, buildListener);
+    } finally {
+      verify(service, never()).invoke(any());
+    }
+  }
+
+  @Test
+  public void findExecutionToRedrive_previousBuild() {
+    builder.setRedriveFailedExecution(true);
+    AbstractBuild<?, ?> previous = mock(AbstractBuild.class);
+    doReturn(previous).when(build).getPreviousBuild();
+    when(previous.getExternalizableId()).thenReturn("my-job#1");
+    when(previous.getActions(StepFunctionExecutionAction.class)).thenReturn(Collections.singletonList(
+        new StepFunctionExecutionAction(STEP_FUNCTION_ARN, EXECUTION_ARN, false, false, null)));
+    StepFunctionExecutionAction redriven = builder.findExecutionToRedrive(build, CONFIG);
+    assertEquals(EXECUTION_ARN, redriven.getExecutionArn());
+    assertTrue(redriven.isRedrive());
+    assertEquals("my-job#1", redriven.getRedriveOf());
+  }
+
+  @Test
+  public void findExecutionToRedrive_notEnabled() {
+    assertNull(builder.findExecutionToRedrive(build, CONFIG));
+    verify(build, never()).getPreviousBuild();
+  }
+
+  @Test
+  public void findExecutionToRedrive_previousBuildSucceeded() {
+    builder.setRedriveFailedExecution(true);
+    AbstractBuild<?, ?> previous = mock(AbstractBuild.class);
+    doReturn(previous).when(build).getPreviousBuild();
+    when(previous.getActions(StepFunctionExecutionAction.class)).thenReturn(Collections.singletonList(
+        new StepFunctionExecutionAction(STEP_FUNCTION_ARN, EXECUTION_ARN, true, false, null)));
+    assertNull(builder.findExecutionToRedrive(build, CONFIG));
+  }
+
+  @Test
+  public void perform_singleFlight() throws IOException, InterruptedException {
+    builder.setSingleFlight(true);
+    assertTrue(builder.perform(build, launcher, buildListener));
+    verify(service).invoke(any());
+  }
+
+  @Test(timeout = 10_000)
+  public void perform_singleFlight_leaderAborted() throws Exception {
+    when(stepFunctions.startExecution(any())).thenReturn(new StartExecutionResult().withExecutionArn(EXECUTION_ARN));
+    when(stepFunctions.describeExecution(any()))
+        .thenReturn(new DescribeExecutionResult().withStatus(ExecutionStatus.RUNNING.name()))
+        .thenReturn(new DescribeExecutionResult().withStatus(ExecutionStatus.SUCCEEDED.name()));
+    CountDownLatch sleeping = new CountDownLatch(1);
+    builder.setSingleFlight(true);
+    doReturn(new InvokeStepFunctionService(stepFunctions, CONFIG, STD_OUT, millis -> {
+      sleeping.countDown();
+      Thread.sleep(millis);
+    })).when(builder).createService(stepFunctions, STD_OUT, CONFIG, null);
+
+    AbstractBuild<?, ?> attachedBuild = mock(AbstractBuild.class);
+    BuildListener attachedListener = mock(BuildListener.class);
+    PrintStream attachedLog = mock(PrintStream.class);
+    CountDownLatch joined = new CountDownLatch(1);
+    when(attachedBuild.getBuildVariables()).thenReturn(ImmutableMap.of());
+    when(attachedListener.getLogger()).thenReturn(attachedLog);
+    doAnswer(invocation -> {
+      joined.countDown();
+      return null;
+    }).when(attachedLog).println(anyString());
+    InvokeStepFunctionBuilder attached = spy(new InvokeStepFunctionBuilder(true, null, null, null,
+        STEP_FUNCTION_ARN, "10", PAYLOAD));
+    attached.setSingleFlight(true);
+    doReturn(stepFunctions).when(attached).createStepFunctionClient(any(InvokeStepFunctionConfig.class));
+    doReturn(new InvokeStepFunctionService(stepFunctions, CONFIG, attachedLog, mock(Sleeper.class)))
+        .when(attached).createService(stepFunctions, attachedLog, CONFIG, null);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      Future<Boolean> leader = executor.submit(() -> builder.perform(build, launcher, buildListener));
+      assertTrue(sleeping.await(10, TimeUnit.SECONDS));
+      Future<Boolean> follower = executor.submit(() -> attached.perform(attachedBuild, launcher, attachedListener));
+      assertTrue(joined.await(10, TimeUnit.SECONDS));
+      // Aborting the leading build interrupts it while it sleeps between polls
+      leader.cancel(true);
+      assertTrue(follower.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    // The attached build takes over awaiting the leader's execution instead of starting another
+    verify(stepFunctions, times(1)).startExecution(any());
+    ArgumentCaptor<StepFunctionExecutionAction> action = ArgumentCaptor.forClass(StepFunctionExecutionAction.class);
+    verify(attachedBuild).addAction(action.capture());
+    assertEquals(EXECUTION_ARN, action.getValue().getExecutionArn());
+    assertTrue(action.getValue().isSuccess());
+  }
+
+  @Test
+  public void singleFlightKey() {
+    String key = InvokeStepFunctionBuilder.singleFlightKey(CONFIG, true, null, null);
+    assertEquals(key, InvokeStepFunctionBuilder.singleFlightKey(InvokeStepFunctionConfig.builder(CONFIG).build(),
+        true, null, null));
+    assertNotEquals(key, InvokeStepFunctionBuilder.singleFlightKey(InvokeStepFunctionConfig.builder(CONFIG)
+        .payload("{\"message\":\"goodbye!\"}")
+        .build(), true, null, null));
+    assertNotEquals(key, InvokeStepFunctionBuilder.singleFlightKey(CONFIG, true, null, EXECUTION_ARN));
+  }
+
+  @Test
+  public void singleFlightKey_payloadStore() {
+    // Builds sharing an execution must download its offloaded output from the same store
+    assertNotEquals(InvokeStepFunctionBuilder.singleFlightKey(CONFIG, true, null, null),
+        InvokeStepFunctionBuilder.singleFlightKey(InvokeStepFunctionConfig.builder(CONFIG)
+            .payloadStoreUri("s3://my-bucket/payloads/")
+            .build(), true, null, null));
+  }
+
+  @Test
+  public void singleFlightKey_credentials() {
+    InvokeStepFunctionConfig config = InvokeStepFunctionConfig.builder(CONFIG)
+        .awsAccessKeyId("access-key")
+        .awsSecretKey("shhh")
+        .build();
+    String key = InvokeStepFunctionBuilder.singleFlightKey(config, false, null, null);
+    assertNotEquals(key, InvokeStepFunctionBuilder.singleFlightKey(config, true, null, null));
+    assertNotEquals(key, InvokeStepFunctionBuilder.singleFlightKey(InvokeStepFunctionConfig.builder(config)
+        .awsSecretKey("other")
+        .build(), false, null, null));
+    assertFalse(key.contains("shhh"));
+  }
+
+  @Test
+  public void singleFlightKey_agentInstanceCredentials() {
+    // Each agent's instance credentials are its own, so only builds on the same agent share
+    String key = InvokeStepFunctionBuilder.singleFlightKey(CONFIG, true, "agent-1", null);
+    assertEquals(key, InvokeStepFunctionBuilder.singleFlightKey(CONFIG, true, "agent-1", null));
+    assertNotEquals(key, InvokeStepFunctionBuilder.singleFlightKey(CONFIG, true, "agent-2", null));
+    assertNotEquals(key, InvokeStepFunctionBuilder.singleFlightKey(CONFIG, true, null, null));
+  }
+
   @Test
   public void buildConfig_noVariables() {
     assertEquals(CONFIG, builder.buildConfig(VariableResolver.NONE));
@@ -0,0 +1,198 @@
+package com.onetag.plugins.tasks;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.stepfunctions.AWSStepFunctions;
+import com.amazonaws.services.stepfunctions.model.DescribeExecutionRequest;
+import com.amazonaws.services.stepfunctions.model.DescribeExecutionResult;
+import com.amazonaws.services.stepfunctions.model.ExecutionStatus;
+import com.amazonaws.services.stepfunctions.model.RedriveExecutionRequest;
+import com.amazonaws.services.stepfunctions.model.RedriveExecutionResult;
+import com.amazonaws.services.stepfunctions.model.StartExecutionRequest;
+import com.amazonaws.services.stepfunctions.model.StartExecutionResult;
+import com.google.common.base.Strings;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import hudson.model.TaskListener;
+
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+import com.onetag.plugins.model.InvokeStepFunctionResult;
+import com.onetag.plugins.store.ClaimCheck;
+import com.onetag.plugins.store.LocalPayloadStore;
+import com.onetag.plugins.tasks.InvokeStepFunctionService.Operation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InvokeStepFunctionCallableTest extends Mockito {
+
+  private static final String STEP_FUNCTION_ARN = "arn:aws:states:us-east-1:123456789012:stateMachine:my_step_function";
+  private static final String EXECUTION_ARN = "arn:aws:states:us-east-1:123456789012:execution:my_step_function:execution-id";
+  private static final DescribeExecutionRequest DESCRIBE_EXECUTION_REQUEST = new DescribeExecutionRequest()
+      .withExecutionArn(EXECUTION_ARN);
+  private static final String PAYLOAD = "{\"message\":\"hello!\"}";
+  private static final String LARGE_OUTPUT = "{\"message\":\"" + Strings.repeat("a", ClaimCheck.MAX_PAYLOAD_BYTES)
+      + "\"}";
+  private static final PrintStream STD_OUT = new PrintStream(new FileOutputStream(FileDescriptor.out));
+  public @Rule TemporaryFolder folder = new TemporaryFolder();
+  private @Mock AWSStepFunctions stepFunctions;
+  private @Mock TaskListener listener;
+  private @Mock Consumer<String> onStarted;
+  private File store;
+  private File workspace;
+  private InvokeStepFunctionConfig config;
+
+  @Before
+  public void setUp() throws IOException {
+    when(listener.getLogger()).thenReturn(STD_OUT);
+    store = folder.newFolder("store");
+    workspace = folder.newFolder("workspace");
+    config = InvokeStepFunctionConfig.builder()
+        .stateMachineArn(STEP_FUNCTION_ARN)
+        .payload(PAYLOAD)
+        .pollInterval(Duration.ofSeconds(10))
+        .awsRegion("us-east-1")
+        .payloadStoreUri(store.toURI().toString())
+        .build();
+  }
+
+  @Test
+  public void call_invoke() throws IOException {
+    when(stepFunctions.startExecution(new StartExecutionRequest()
+        .withStateMachineArn(STEP_FUNCTION_ARN)
+        .withInput(PAYLOAD)))
+        .thenReturn(new StartExecutionResult().withExecutionArn(EXECUTION_ARN));
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenReturn(new DescribeExecutionResult()
+        .withExecutionArn(EXECUTION_ARN)
+        .withStatus(ExecutionStatus.SUCCEEDED)
+        .withOutput("some output"));
+    InvokeStepFunctionResult expected = InvokeStepFunctionResult.builder()
+        .executionArn(EXECUTION_ARN)
+        .output("some output")
+        .success(true)
+        .build();
+    assertEquals(expected, callable(Operation.INVOKE, null).call());
+    verify(stepFunctions, never()).redriveExecution(any(RedriveExecutionRequest.class));
+    verify(onStarted).accept(EXECUTION_ARN);
+    verify(stepFunctions).shutdown();
+  }
+
+  @Test
+  public void call_redrive() throws IOException {
+    // The redriven execution returns an offloaded output, which is downloaded to the workspace
+    String pointer = new ClaimCheck(new LocalPayloadStore(store), folder.newFolder()).checkIn(LARGE_OUTPUT);
+    when(stepFunctions.redriveExecution(new RedriveExecutionRequest().withExecutionArn(EXECUTION_ARN)))
+        .thenReturn(new RedriveExecutionResult());
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST))
+        .thenReturn(new DescribeExecutionResult()
+            .withExecutionArn(EXECUTION_ARN)
+            .withStateMachineArn(STEP_FUNCTION_ARN)
+            .withStatus(ExecutionStatus.FAILED)
+            .withRedriveCount(0))
+        .thenReturn(new DescribeExecutionResult()
+            .withExecutionArn(EXECUTION_ARN)
+            .withStatus(ExecutionStatus.SUCCEEDED)
+            .withRedriveCount(1)
+            .withOutput(pointer));
+    InvokeStepFunctionResult result = callable(Operation.REDRIVE, EXECUTION_ARN).call();
+    verify(stepFunctions, never()).startExecution(any(StartExecutionRequest.class));
+    verify(onStarted).accept(EXECUTION_ARN);
+    assertTrue(result.isSuccess());
+    assertEquals(EXECUTION_ARN, result.getExecutionArn());
+    assertEquals(new File(workspace, "execution-id-output.json"), result.getOutputFile());
+    assertEquals(LARGE_OUTPUT, new String(Files.readAllBytes(result.getOutputFile().toPath()), StandardCharsets.UTF_8));
+    verify(stepFunctions).shutdown();
+  }
+
+  @Test
+  public void call_monitor() throws IOException {
+    // A build attached to a shared execution downloads its own copy of the offloaded output
+    String pointer = new ClaimCheck(new LocalPayloadStore(store), folder.newFolder()).checkIn(LARGE_OUTPUT);
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenReturn(new DescribeExecutionResult()
+        .withExecutionArn(EXECUTION_ARN)
+        .withStatus(ExecutionStatus.SUCCEEDED)
+        .withOutput(pointer));
+    InvokeStepFunctionResult result = callable(Operation.MONITOR, EXECUTION_ARN).call();
+    verify(stepFunctions, never()).startExecution(any(StartExecutionRequest.class));
+    verify(stepFunctions, never()).redriveExecution(any(RedriveExecutionRequest.class));
+    assertTrue(result.isSuccess());
+    assertEquals(new File(workspace, "execution-id-output.json"), result.getOutputFile());
+    verify(stepFunctions).shutdown();
+  }
+
+  @Test
+  public void call_noPayloadStore() throws IOException {
+    config = InvokeStepFunctionConfig.builder(config).payloadStoreUri(null).build();
+    when(stepFunctions.startExecution(any(StartExecutionRequest.class)))
+        .thenReturn(new StartExecutionResult().withExecutionArn(EXECUTION_ARN));
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenReturn(new DescribeExecutionResult()
+        .withExecutionArn(EXECUTION_ARN)
+        .withStatus(ExecutionStatus.FAILED));
+    InvokeStepFunctionResult result = callable(Operation.INVOKE, null).call();
+    assertFalse(result.isSuccess());
+    assertNull(result.getOutputFile());
+  }
+
+  @Test(expected = AmazonClientException.class)
+  public void call_error() throws IOException {
+    when(stepFunctions.startExecution(any(StartExecutionRequest.class))).thenThrow(new AmazonClientException("oops"));
+    try {
+      callable(Operation.INVOKE, null).call();
+    } finally {
+      // The client is shut down even if the invocation fails
+      verify(stepFunctions).shutdown();
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void call_interrupted() throws IOException {
+    when(stepFunctions.startExecution(any(StartExecutionRequest.class)))
+        .thenReturn(new StartExecutionResult().withExecutionArn(EXECUTION_ARN));
+    // Aborting the build cancels the remote call, which interrupts the agent thread while it polls
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenAnswer(invocation -> {
+      Thread.currentThread().interrupt();
+      return new DescribeExecutionResult()
+          .withExecutionArn(EXECUTION_ARN)
+          .withStatus(ExecutionStatus.RUNNING);
+    });
+    try {
+      callable(Operation.INVOKE, null).call();
+      fail("expected the interruption to end the call");
+    } catch (InterruptedIOException e) {
+      // Ends at the next sleep, rather than polling for the rest of the execution
+      verify(stepFunctions, times(1)).describeExecution(DESCRIBE_EXECUTION_REQUEST);
+      verify(stepFunctions).shutdown();
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  private InvokeStepFunctionCallable callable(Operation operation, String executionArn) {
+    InvokeStepFunctionCallable callable = spy(new InvokeStepFunctionCallable(config, true, operation, executionArn,
+        workspace.getPath(), listener, onStarted));
+    doReturn(stepFunctions).when(callable).createStepFunctionClient();
+    return callable;
+  }
+}
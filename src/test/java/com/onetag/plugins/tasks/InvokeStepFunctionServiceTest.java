@@ -1,5 +1,7 @@
 package com.onetag.plugins.tasks;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.time.Duration;
 
@@ -7,6 +9,8 @@ import com.amazonaws.services.stepfunctions.AWSStepFunctions;
 import com.amazonaws.services.stepfunctions.model.DescribeExecutionRequest;
 import com.amazonaws.services.stepfunctions.model.DescribeExecutionResult;
 import com.amazonaws.services.stepfunctions.model.ExecutionStatus;
+import com.amazonaws.services.stepfunctions.model.RedriveExecutionRequest;
+import com.amazonaws.services.stepfunctions.model.RedriveExecutionResult;
 import com.amazonaws.services.stepfunctions.model.StartExecutionRequest;
 import com.amazonaws.services.stepfunctions.model.StartExecutionResult;
 
@@ -19,9 +23,11 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import com.onetag.plugins.model.InvokeStepFunctionConfig;
 import com.onetag.plugins.model.InvokeStepFunctionResult;
+import com.onetag.plugins.store.ClaimCheck;
 import com.onetag.plugins.util.Sleeper;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * @author Tony Gallotta
@@ -42,11 +48,18 @@ public class InvokeStepFunctionServiceTest extends Mockito {
       .build();
   private static final DescribeExecutionResult RUNNING_RESULT = new DescribeExecutionResult()
       .withExecutionArn(EXECUTION_ARN)
+      .withStateMachineArn(STEP_FUNCTION_ARN)
       .withStatus(ExecutionStatus.RUNNING);
   private static final DescribeExecutionResult SUCCESSFUL_RESULT = new DescribeExecutionResult()
       .withExecutionArn(EXECUTION_ARN)
+      .withStateMachineArn(STEP_FUNCTION_ARN)
       .withStatus(ExecutionStatus.SUCCEEDED)
       .withOutput("some output");
+  private static final DescribeExecutionResult FAILED_RESULT = new DescribeExecutionResult()
+      .withExecutionArn(EXECUTION_ARN)
+      .withStateMachineArn(STEP_FUNCTION_ARN)
+      .withStatus(ExecutionStatus.FAILED)
+      .withRedriveCount(0);
   private @Mock AWSStepFunctions stepFunctions;
   private @Mock PrintStream log;
   private @Mock Sleeper sleeper;
@@ -63,7 +76,7 @@ public class InvokeStepFunctionServiceTest extends Mockito {
   }
 
   @Test
-  public void invoke_success() {
+  public void invoke_success() throws InterruptedException {
     when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST))
         .thenReturn(RUNNING_RESULT)
         .thenReturn(SUCCESSFUL_RESULT);
@@ -77,7 +90,7 @@ public class InvokeStepFunctionServiceTest extends Mockito {
   }
 
   @Test
-  public void invoke_failure() {
+  public void invoke_failure() throws InterruptedException {
     DescribeExecutionResult failureResult = new DescribeExecutionResult()
         .withExecutionArn(EXECUTION_ARN)
         .withStatus(ExecutionStatus.FAILED);
@@ -93,7 +106,7 @@ public class InvokeStepFunctionServiceTest extends Mockito {
   }
 
   @Test
-  public void invoke_aborted() {
+  public void invoke_aborted() throws InterruptedException {
     DescribeExecutionResult failureResult = new DescribeExecutionResult()
         .withExecutionArn(EXECUTION_ARN)
         .withStatus(ExecutionStatus.ABORTED);
@@ -108,6 +121,114 @@ public class InvokeStepFunctionServiceTest extends Mockito {
     verify(stepFunctions, times(2)).describeExecution(DESCRIBE_EXECUTION_REQUEST);
   }
 
+  @Test
+  public void redrive() throws InterruptedException {
+    RedriveExecutionRequest redriveRequest = new RedriveExecutionRequest().withExecutionArn(EXECUTION_ARN);
+    when(stepFunctions.redriveExecution(redriveRequest)).thenReturn(new RedriveExecutionResult());
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST))
+        .thenReturn(FAILED_RESULT)
+        .thenReturn(RUNNING_RESULT)
+        .thenReturn(SUCCESSFUL_RESULT);
+    InvokeStepFunctionResult expected = InvokeStepFunctionResult.builder()
+        .executionArn(EXECUTION_ARN)
+        .output("some output")
+        .success(true)
+        .build();
+    assertEquals(expected, invoker.redrive(EXECUTION_ARN));
+    verify(stepFunctions, never()).startExecution(any(StartExecutionRequest.class));
+  }
+
+  @Test
+  public void redrive_staleDescription() throws InterruptedException {
+    DescribeExecutionResult redrivenResult = new DescribeExecutionResult()
+        .withExecutionArn(EXECUTION_ARN)
+        .withStatus(ExecutionStatus.FAILED)
+        .withRedriveCount(1);
+    when(stepFunctions.redriveExecution(any(RedriveExecutionRequest.class))).thenReturn(new RedriveExecutionResult());
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST))
+        .thenReturn(FAILED_RESULT)
+        .thenReturn(FAILED_RESULT)
+        .thenReturn(redrivenResult);
+    InvokeStepFunctionResult expected = InvokeStepFunctionResult.builder()
+        .executionArn(EXECUTION_ARN)
+        .success(false)
+        .build();
+    // The first description after the redrive is stale, the redriven execution then fails again
+    assertEquals(expected, invoker.redrive(EXECUTION_ARN));
+    verify(stepFunctions, times(3)).describeExecution(DESCRIBE_EXECUTION_REQUEST);
+    verify(sleeper).sleep(60_000);
+  }
+
+  @Test
+  public void redrive_succeeded() throws InterruptedException {
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenReturn(SUCCESSFUL_RESULT);
+    InvokeStepFunctionResult expected = InvokeStepFunctionResult.builder()
+        .executionArn(EXECUTION_ARN)
+        .output("some output")
+        .success(true)
+        .build();
+    assertEquals(expected, invoker.redrive(EXECUTION_ARN));
+    verify(stepFunctions, never()).redriveExecution(any(RedriveExecutionRequest.class));
+  }
+
+  @Test
+  public void redrive_running() throws InterruptedException {
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST))
+        .thenReturn(RUNNING_RESULT)
+        .thenReturn(SUCCESSFUL_RESULT);
+    InvokeStepFunctionResult expected = InvokeStepFunctionResult.builder()
+        .executionArn(EXECUTION_ARN)
+        .output("some output")
+        .success(true)
+        .build();
+    assertEquals(expected, invoker.redrive(EXECUTION_ARN));
+    verify(stepFunctions, never()).redriveExecution(any(RedriveExecutionRequest.class));
+    verify(sleeper).sleep(60_000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void redrive_otherStateMachine() throws InterruptedException {
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenReturn(new DescribeExecutionResult()
+        .withExecutionArn(EXECUTION_ARN)
+        .withStateMachineArn("arn:aws:states:us-east-1:123456789012:stateMachine:other")
+        .withStatus(ExecutionStatus.FAILED));
+    try {
+      invoker.redrive(EXECUTION_ARN);
+    } finally {
+      verify(stepFunctions, never()).redriveExecution(any(RedriveExecutionRequest.class));
+    }
+  }
+
+  @Test
+  public void invoke_claimCheck() throws IOException, InterruptedException {
+    ClaimCheck claimCheck = mock(ClaimCheck.class);
+    File outputFile = new File("execution-id-output.json");
+    when(claimCheck.checkIn(PAYLOAD)).thenReturn(PAYLOAD);
+    when(claimCheck.checkOut("some output", "execution-id-output.json")).thenReturn(outputFile);
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenReturn(SUCCESSFUL_RESULT);
+    InvokeStepFunctionResult expected = InvokeStepFunctionResult.builder()
+        .executionArn(EXECUTION_ARN)
+        .output("some output")
+        .outputFile(outputFile)
+        .success(true)
+        .build();
+    invoker = new InvokeStepFunctionService(stepFunctions, CONFIG, log, sleeper, claimCheck);
+    assertEquals(expected, invoker.invoke());
+  }
+
+  @Test
+  public void awaitCompletion_interrupted() throws InterruptedException {
+    when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST)).thenReturn(RUNNING_RESULT);
+    doThrow(new InterruptedException()).when(sleeper).sleep(60_000);
+    try {
+      invoker.invoke();
+      fail("expected the interruption to be rethrown");
+    } catch (InterruptedException e) {
+      // Stops polling rather than carrying on as if nothing happened, so an aborted build ends
+      verify(stepFunctions, times(1)).describeExecution(DESCRIBE_EXECUTION_REQUEST);
+    }
+  }
+
   @Test
   public void awaitCompletion() throws InterruptedException {
     when(stepFunctions.describeExecution(DESCRIBE_EXECUTION_REQUEST))
@@ -0,0 +1,148 @@
+package com.onetag.plugins.util;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+  private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicInteger calls = new AtomicInteger();
+  private final AtomicInteger resumes = new AtomicInteger();
+  private final CountDownLatch started = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void execute_sharesInFlightCall() throws Exception {
+    Future<String> leader = executor.submit(() -> singleFlight.execute("key", this::blockingCall, () -> {},
+        this::resume));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    CountDownLatch joined = new CountDownLatch(1);
+    Future<String> follower = executor.submit(() -> singleFlight.execute("key", this::blockingCall,
+        joined::countDown, this::resume));
+    assertTrue(joined.await(10, TimeUnit.SECONDS));
+    release.countDown();
+    assertEquals("result", leader.get(10, TimeUnit.SECONDS));
+    // The follower produces its own result from the leader's checkpoint
+    assertEquals("resumed from checkpoint", follower.get(10, TimeUnit.SECONDS));
+    assertEquals(1, calls.get());
+    assertEquals(1, resumes.get());
+  }
+
+  @Test
+  public void execute_sharesFailure() throws Exception {
+    executor.submit(() -> singleFlight.execute("key", checkpoint -> {
+      started.countDown();
+      release.await();
+      throw new IOException("oops");
+    }, () -> {}, this::resume));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    try {
+      singleFlight.execute("key", checkpoint -> "unused", release::countDown, this::resume);
+      fail("expected the shared failure");
+    } catch (IOException e) {
+      assertEquals("oops", e.getMessage());
+    }
+    assertEquals(0, resumes.get());
+  }
+
+  @Test
+  public void execute_resumesAfterFailureWithCheckpoint() throws Exception {
+    executor.submit(() -> singleFlight.execute("key", checkpoint -> {
+      checkpoint.accept("checkpoint");
+      started.countDown();
+      release.await();
+      throw new IOException("oops");
+    }, () -> {}, this::resume));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    // The failure came after the checkpoint, so the follower carries on from it rather than failing too
+    assertEquals("resumed from checkpoint", singleFlight.execute("key", this::blockingCall, release::countDown,
+        this::resume));
+    assertEquals(0, calls.get());
+    assertEquals(1, resumes.get());
+  }
+
+  @Test
+  public void execute_takesOverInterruptedCall() throws Exception {
+    Future<String> leader = executor.submit(() -> singleFlight.execute("key", checkpoint -> {
+      checkpoint.accept("checkpoint");
+      started.countDown();
+      release.await();
+      throw new InterruptedException();
+    }, () -> {}, this::resume));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    // The follower resumes from the checkpoint rather than failing or making the call again
+    assertEquals("resumed from checkpoint", singleFlight.execute("key", this::blockingCall, release::countDown,
+        this::resume));
+    assertEquals(0, calls.get());
+    assertEquals(1, resumes.get());
+    try {
+      leader.get(10, TimeUnit.SECONDS);
+      fail("expected the leader to be interrupted");
+    } catch (java.util.concurrent.ExecutionException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+    }
+  }
+
+  @Test
+  public void execute_retriesCallInterruptedBeforeCheckpoint() throws Exception {
+    executor.submit(() -> singleFlight.execute("key", checkpoint -> {
+      started.countDown();
+      release.await();
+      throw new InterruptedException();
+    }, () -> {}, this::resume));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    // Nothing to resume from, so the follower makes the call itself
+    assertEquals("result", singleFlight.execute("key", checkpoint -> {
+      calls.incrementAndGet();
+      return "result";
+    }, release::countDown, this::resume));
+    assertEquals(1, calls.get());
+    assertEquals(0, resumes.get());
+  }
+
+  @Test
+  public void execute_differentKeys() throws Exception {
+    assertEquals("a", singleFlight.execute("a", checkpoint -> "a", () -> fail("should not join"), this::resume));
+    assertEquals("b", singleFlight.execute("b", checkpoint -> "b", () -> fail("should not join"), this::resume));
+  }
+
+  @Test
+  public void execute_afterCompletion() throws Exception {
+    release.countDown();
+    singleFlight.execute("key", this::blockingCall, () -> fail("should not join"), this::resume);
+    singleFlight.execute("key", this::blockingCall, () -> fail("should not join"), this::resume);
+    assertEquals(2, calls.get());
+  }
+
+  private String blockingCall(Consumer<String> checkpoint) throws InterruptedException {
+    calls.incrementAndGet();
+    checkpoint.accept("checkpoint");
+    started.countDown();
+    release.await();
+    return "result";
+  }
+
+  private String resume(String checkpoint) {
+    resumes.incrementAndGet();
+    return "resumed from " + checkpoint;
+  }
+}
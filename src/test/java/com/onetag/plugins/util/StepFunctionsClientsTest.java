@@ -0,0 +1,46 @@
+package com.onetag.plugins.util;
+
+import org.junit.Test;
+
+import com.onetag.plugins.model.InvokeStepFunctionConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class StepFunctionsClientsTest {
+
+  private static final InvokeStepFunctionConfig CONFIG = InvokeStepFunctionConfig.builder()
+      .awsAccessKeyId("AKIAEXAMPLE")
+      .awsSecretKey("secret")
+      .awsRegion("us-east-1")
+      .build();
+
+  @Test
+  public void key() {
+    String key = StepFunctionsClients.key(CONFIG, false);
+    assertEquals(key, StepFunctionsClients.key(InvokeStepFunctionConfig.builder(CONFIG).build(), false));
+    assertFalse(key.contains("secret"));
+    assertNotEquals(key, StepFunctionsClients.key(InvokeStepFunctionConfig.builder(CONFIG)
+        .awsSecretKey("rotated")
+        .build(), false));
+    assertNotEquals(key, StepFunctionsClients.key(InvokeStepFunctionConfig.builder(CONFIG)
+        .awsRegion("us-west-2")
+        .build(), false));
+  }
+
+  @Test
+  public void key_instanceCredentials() {
+    // The access key is ignored when using instance credentials
+    assertEquals(StepFunctionsClients.key(CONFIG, true), StepFunctionsClients.key(InvokeStepFunctionConfig.builder()
+        .awsRegion("us-east-1")
+        .build(), true));
+    assertNotEquals(StepFunctionsClients.key(CONFIG, true), StepFunctionsClients.key(CONFIG, false));
+  }
+
+  @Test
+  public void shared_shutdown() {
+    // Shutting down a handle leaves the shared client for its other users
+    StepFunctionsClients.shared(CONFIG, false).shutdown();
+  }
+}